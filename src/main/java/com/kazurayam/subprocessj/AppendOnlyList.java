@@ -0,0 +1,80 @@
+package com.kazurayam.subprocessj;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list to which a single thread appends elements, while other threads take
+ * snapshots of it at any time. The elements are stored in chunks of 1024 which
+ * are never moved, so that a snapshot is an O(1) read-only view of the first
+ * size() elements; nothing is copied.
+ *
+ * The writer publishes a new element by the volatile write of the size;
+ * a reader which has read the size sees all the elements below it.
+ */
+final class AppendOnlyList<E> {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile Object[][] chunks = new Object[4][];
+    private volatile int size = 0;
+
+    /**
+     * must be called by one thread at a time
+     */
+    void add(E element) {
+        int i = size;
+        int c = i >>> CHUNK_BITS;
+        Object[][] cs = chunks;
+        if (c >= cs.length) {
+            cs = Arrays.copyOf(cs, cs.length * 2);
+            chunks = cs;
+        }
+        if (cs[c] == null) {
+            cs[c] = new Object[CHUNK_SIZE];
+        }
+        cs[c][i & CHUNK_MASK] = element;
+        size = i + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return a read-only view of the elements added so far
+     */
+    List<E> snapshot() {
+        int n = size;           // read the size first,
+        Object[][] cs = chunks; // then the chunks which hold at least n elements
+        return new Snapshot<>(cs, n);
+    }
+
+    private static final class Snapshot<E> extends AbstractList<E> implements RandomAccess {
+        private final Object[][] chunks;
+        private final int size;
+
+        Snapshot(Object[][] chunks, int size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return (E) chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.kazurayam.subprocessj;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+
+/**
+ * BatchRunner runs many independent commands with a bounded parallelism.
+ *
+ * <PRE>
+ *     BatchRunner batch = new BatchRunner(Runtime.getRuntime().availableProcessors());
+ *     for (File dir : dirs) {
+ *         batch.add(new Subprocess().cwd(dir), Arrays.asList("git", "status"));
+ *     }
+ *     List&lt;BatchResult&gt; results = batch.runAll();   // in the order added
+ * </PRE>
+ *
+ * <p>Each command runs with its own Subprocess object, which carries the working directory,
+ * the environment variables and the CapturePolicy for the command.
+ * Do not add the same Subprocess object for commands, because a Subprocess object
+ * is not designed to be run by multiple threads at once.</p>
+ */
+public class BatchRunner {
+
+    private final int parallelism;
+    private final List<Job> jobs;
+    private Duration timeout;
+
+    /**
+     * @param parallelism the max number of commands running at the same time
+     */
+    public BatchRunner(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.jobs = new ArrayList<>();
+        this.timeout = null;
+    }
+
+    /**
+     * @param command E.g Array.asList("ls", "-la", ".") to be run by a new Subprocess object
+     * @return the BatchRunner object. for functional call chaining.
+     */
+    public BatchRunner add(List<String> command) {
+        return add(new Subprocess(), command);
+    }
+
+    /**
+     * @param subprocess a Subprocess object configured for the command
+     * @param command E.g Array.asList("ls", "-la", ".")
+     * @return the BatchRunner object. for functional call chaining.
+     */
+    public BatchRunner add(Subprocess subprocess, List<String> command) {
+        Objects.requireNonNull(subprocess);
+        Objects.requireNonNull(command);
+        this.jobs.add(new Job(jobs.size(), subprocess, command));
+        return this;
+    }
+
+    /**
+     * @param timeout applied to each command; see Subprocess#run(List, Duration)
+     * @return the BatchRunner object. for functional call chaining.
+     */
+    public BatchRunner timeout(Duration timeout) {
+        Objects.requireNonNull(timeout);
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * @return the number of commands added
+     */
+    public int size() {
+        return jobs.size();
+    }
+
+    /**
+     * Run all commands, wait for all of them to finish.
+     * @return the BatchResults in the order the commands were added
+     * @throws InterruptedException when the calling thread was interrupted while waiting
+     */
+    public List<BatchResult> runAll() throws InterruptedException {
+        BatchResult[] results = new BatchResult[jobs.size()];
+        runEach(result -> results[result.index()] = result);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Run all commands, hand each BatchResult to the consumer as soon as the command finished.
+     * The consumer is called by the calling thread, in the order of completion.
+     * If the calling thread is interrupted, or the consumer throws, the commands still
+     * running are destroyed forcibly before the exception is thrown.
+     * @param consumer will receive each BatchResult
+     * @throws InterruptedException when the calling thread was interrupted while waiting
+     */
+    public void runEach(Consumer<BatchResult> consumer) throws InterruptedException {
+        Objects.requireNonNull(consumer);
+        if (jobs.isEmpty()) {
+            return;
+        }
+        ExecutorService threadPool = Executors.newFixedThreadPool(
+                Math.min(parallelism, jobs.size()),
+                new DaemonThreadFactory("subprocessj-batch-"));
+        Batch batch = new Batch();
+        boolean finished = false;
+        try {
+            CompletionService<BatchResult> completionService =
+                    new ExecutorCompletionService<>(threadPool);
+            for (Job job : jobs) {
+                completionService.submit(() -> execute(job, batch));
+            }
+            for (int i = 0; i < jobs.size(); i++) {
+                try {
+                    consumer.accept(completionService.take().get());
+                } catch (ExecutionException e) {
+                    // execute() catches everything but Errors
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            finished = true;
+        } finally {
+            if (! finished) {
+                batch.abort();
+            }
+            threadPool.shutdownNow();
+        }
+    }
+
+    private BatchResult execute(Job job, Batch batch) {
+        Instant startedAt = Instant.now();
+        long start = System.nanoTime();
+        Runnable[] killer = new Runnable[1];
+        try {
+            CompletedProcess cp = job.subprocess.run(job.command, timeout, k -> {
+                killer[0] = k;
+                batch.started(k);
+            });
+            return new BatchResult(job, cp, null, startedAt, Duration.ofNanos(System.nanoTime() - start));
+        } catch (IOException | RuntimeException e) {
+            return new BatchResult(job, null, e, startedAt, Duration.ofNanos(System.nanoTime() - start));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new BatchResult(job, null, e, startedAt, Duration.ofNanos(System.nanoTime() - start));
+        } finally {
+            if (killer[0] != null) {
+                batch.finished(killer[0]);
+            }
+        }
+    }
+
+    /**
+     * The processes of a batch running now
+     */
+    private static final class Batch {
+        private final Set<Runnable> running = ConcurrentHashMap.newKeySet();
+        private volatile boolean aborted = false;
+
+        /**
+         * @param killer kills the process forcibly; see Subprocess#run(List, Duration, Consumer)
+         */
+        void started(Runnable killer) {
+            running.add(killer);
+            if (aborted) {
+                // started while the batch was being aborted
+                killer.run();
+            }
+        }
+
+        void finished(Runnable killer) {
+            running.remove(killer);
+        }
+
+        void abort() {
+            aborted = true;
+            for (Runnable killer : running) {
+                killer.run();
+            }
+        }
+    }
+
+    private static final class Job {
+        final int index;
+        final Subprocess subprocess;
+        final List<String> command;
+        Job(int index, Subprocess subprocess, List<String> command) {
+            this.index = index;
+            this.subprocess = subprocess;
+            this.command = command;
+        }
+    }
+
+    /**
+     * A Data Transfer Object that contains the outcome of a command in a batch,
+     * with the timing information.
+     */
+    public static final class BatchResult {
+        private final int index;
+        private final List<String> command;
+        private final CompletedProcess cp;
+        private final Exception exception;
+        private final Instant startedAt;
+        private final Duration elapsed;
+
+        BatchResult(Job job, CompletedProcess cp, Exception exception,
+                    Instant startedAt, Duration elapsed) {
+            this.index = job.index;
+            this.command = job.command;
+            this.cp = cp;
+            this.exception = exception;
+            this.startedAt = startedAt;
+            this.elapsed = elapsed;
+        }
+
+        /**
+         * @return the position of the command in the batch, 0 for the first
+         */
+        public int index() {
+            return index;
+        }
+
+        public List<String> command() {
+            return command;
+        }
+
+        /**
+         * @return the CompletedProcess; CompletedProcess.NULL_OBJECT if the command failed to run
+         */
+        public CompletedProcess completedProcess() {
+            return (cp != null) ? cp : CompletedProcess.NULL_OBJECT;
+        }
+
+        /**
+         * @return the Exception thrown when the command failed to run
+         */
+        public Optional<Exception> exception() {
+            return Optional.ofNullable(exception);
+        }
+
+        /**
+         * @return the return code of the command; -999 if the command failed to run
+         */
+        public int returncode() {
+            return completedProcess().returncode();
+        }
+
+        public Instant startedAt() {
+            return startedAt;
+        }
+
+        /**
+         * @return the wall clock time spent for the command
+         */
+        public Duration elapsed() {
+            return elapsed;
+        }
+
+        @Override
+        public String toString() {
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(new BufferedWriter(sw));
+            pw.println(String.format("<batch-result index=\"%d\" rc=\"%d\" startedAt=\"%s\" elapsed=\"%s\">",
+                    index, returncode(), startedAt, elapsed));
+            if (cp != null) {
+                pw.print(cp.toString());
+            } else {
+                pw.println("<command>" + String.join(" ", command) + "</command>");
+                pw.println("<exception>" + exception + "</exception>");
+            }
+            pw.println("</batch-result>");
+            pw.flush();
+            pw.close();
+            return sw.toString();
+        }
+    }
+}
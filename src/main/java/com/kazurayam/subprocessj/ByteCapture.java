@@ -0,0 +1,81 @@
+package com.kazurayam.subprocessj;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Captures the stream as raw bytes in a growable byte array, and indexes
+ * the start and the end offsets of each line while the subprocess is running.
+ * Lines are decoded only when lines() is called for the first time.
+ *
+ * The line index looks for the bytes of "\n" and "\r", therefore the charset
+ * should be ASCII-compatible (UTF-8, ISO-8859-1, Shift_JIS, ...) for lines() to work.
+ * bytes() works for any charset.
+ */
+final class ByteCapture extends OutputCapture {
+
+    private final Charset charset;
+    private byte[] bytes;
+    private int size;
+    private final LineIndex index;
+    private List<String> decoded;
+
+    ByteCapture(Charset charset) {
+        this.charset = charset;
+        this.bytes = new byte[1024];
+        this.size = 0;
+        this.index = new LineIndex();
+        this.decoded = null;
+    }
+
+    @Override
+    public void write(byte[] src, int offset, int length) {
+        if (size + length > bytes.length) {
+            int newLength = Math.max(bytes.length * 2, size + length);
+            if (newLength < 0) {
+                throw new OutOfMemoryError("captured bytes exceeded 2GB");
+            }
+            bytes = Arrays.copyOf(bytes, newLength);
+        }
+        System.arraycopy(src, offset, bytes, size, length);
+        int end = size + length;
+        for (int i = size; i < end; i++) {
+            index.accept(bytes[i], i);
+        }
+        size = end;
+    }
+
+    @Override
+    public void close() {
+        index.finish(size);
+    }
+
+    @Override
+    synchronized List<String> lines() {
+        if (decoded == null) {
+            List<String> list = new ArrayList<>(index.count());
+            for (int i = 0; i < index.count(); i++) {
+                list.add(line(i));
+            }
+            decoded = list;
+        }
+        return decoded;
+    }
+
+    String line(int i) {
+        int start = index.start(i);
+        return new String(bytes, start, index.end(i) - start, charset);
+    }
+
+    @Override
+    long lineCount() {
+        return index.count();
+    }
+
+    @Override
+    byte[] bytes() {
+        return Arrays.copyOf(bytes, size);
+    }
+}
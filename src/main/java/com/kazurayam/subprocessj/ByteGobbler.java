@@ -0,0 +1,71 @@
+package com.kazurayam.subprocessj;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Reads an InputStream (STDOUT or STDERR of a subprocess) until the end,
+ * hands the bytes to a ByteSink chunk by chunk.
+ *
+ * The ByteBuffers are heap buffers taken from a shared pool and returned to it
+ * when the stream is finished, so a gobbler allocates nothing per chunk.
+ */
+final class ByteGobbler implements Callable<String> {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int POOL_SIZE = 16;
+
+    private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+    private final InputStream inputStream;
+    private final ByteSink sink;
+
+    ByteGobbler(InputStream inputStream, ByteSink sink) {
+        this.inputStream = inputStream;
+        this.sink = sink;
+    }
+
+    @Override
+    public String call() throws IOException {
+        ByteBuffer buffer = acquire();
+        try {
+            byte[] array = buffer.array();
+            int n;
+            while ((n = inputStream.read(array, 0, array.length)) != -1) {
+                buffer.clear();
+                buffer.limit(n);
+                sink.accept(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            // let the sink release its resources; e.g, a FileChannel
+            try {
+                sink.close();
+            } catch (IOException | RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        } finally {
+            release(buffer);
+        }
+        sink.close();
+        return "done";
+    }
+
+    static ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        return (buffer != null) ? buffer : ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    static void release(ByteBuffer buffer) {
+        // the size of the queue is approximate, which is good enough for a pool
+        if (pool.size() < POOL_SIZE) {
+            buffer.clear();
+            pool.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.kazurayam.subprocessj;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * ByteSink receives the STDOUT or the STDERR of a subprocess as chunks of bytes,
+ * without decoding them into lines. Use it with Subprocess#runBinary() for binary
+ * tools; e.g, an image converter which writes a PNG to the STDOUT.
+ *
+ * <PRE>
+ *     CompletedProcess cp = new Subprocess()
+ *             .stdin(StdinSource.fromPath(Paths.get("in.png")))
+ *             .runBinary(Arrays.asList("pngquant", "-"), ByteSink.toFile(Paths.get("out.png")));
+ * </PRE>
+ *
+ * <p>accept() is called repeatedly by a single thread, then close() is called once
+ * when the stream reached the end, or when reading the stream or accept() failed. The ByteBuffer given to accept() is borrowed from
+ * a pool and is reused for the next chunk as soon as accept() returns; a sink must not
+ * retain it. An IOException thrown by a sink destroys the subprocess.</p>
+ */
+public interface ByteSink {
+
+    /**
+     * @param chunk the bytes between the position and the limit
+     * @throws IOException if the bytes could not be consumed
+     */
+    void accept(ByteBuffer chunk) throws IOException;
+
+    /**
+     * called once when the stream reached the end, or failed
+     * @throws IOException if the sink could not be finished
+     */
+    default void close() throws IOException {}
+
+    /**
+     * Write each chunk into the channel. This is not a zero-copy transfer: the pipe of
+     * a Process is read into a pooled heap buffer, which the channel copies again
+     * (e.g, into a temporary direct buffer of a FileChannel). If the bytes should go
+     * into a file as they are, Subprocess#redirectStdout(File) does not copy them at all.
+     * @param channel will receive the bytes; it is not closed by the sink
+     * @return a ByteSink which writes each chunk into the channel
+     */
+    static ByteSink to(WritableByteChannel channel) {
+        Objects.requireNonNull(channel);
+        return chunk -> {
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+        };
+    }
+
+    /**
+     * Write the bytes into the file through a FileChannel, as to(channel) does.
+     * The file is created even if the stream is empty, or the subprocess failed
+     * before writing anything; then it is left as an empty file.
+     * @param path the file to be created or truncated when the first chunk arrives,
+     *             or at the end of the stream
+     * @return a ByteSink which writes the bytes into the file through a FileChannel,
+     * and closes the channel at the end of the stream
+     */
+    static ByteSink toFile(Path path) {
+        Objects.requireNonNull(path);
+        return new ByteSink() {
+            private FileChannel channel = null;
+
+            @Override
+            public void accept(ByteBuffer chunk) throws IOException {
+                while (chunk.hasRemaining()) {
+                    open__().write(chunk);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                // an empty stream creates an empty file
+                open__().close();
+            }
+
+            private FileChannel open__() throws IOException {
+                if (channel == null) {
+                    channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                }
+                return channel;
+            }
+        };
+    }
+
+    /**
+     * @return a ByteSink which discards the bytes
+     */
+    static ByteSink discard() {
+        return chunk -> chunk.position(chunk.limit());
+    }
+}
@@ -0,0 +1,191 @@
+package com.kazurayam.subprocessj;
+
+/**
+ * CapturePolicy tells Subprocess how much of the STDOUT and the STDERR
+ * of a subprocess should be retained in the CompletedProcess.
+ *
+ * <p>As default, Subprocess retains all lines ({@link #unlimited()}).
+ * A runaway command could print so many lines that the caller runs out of memory.
+ * In that case, use a bounded policy:</p>
+ * <PRE>
+ *     CompletedProcess cp = new Subprocess()
+ *             .capturePolicy(CapturePolicy.headTail(100, 100).maxLineLength(4096))
+ *             .run(Arrays.asList("find", "/"));
+ *     cp.stdout();              // the first 100 lines + the last 100 lines
+ *     cp.stdoutDroppedLines();  // the number of lines in between, not retained
+ * </PRE>
+ *
+ * <p>A bounded policy keeps the first N lines and the last M lines (in a fixed size
+ * ring buffer) and drops the lines in between. A line longer than the maxLineLength
+ * is split into multiple lines, so that a binary blob without any newline
+ * will not be built into a single huge String.
+ * The memory required per stream is at most (N + M) * maxLineLength chars.</p>
+ *
+ * <p>{@link #raw()} retains the bytes as they are, without decoding them into
+ * lines while the subprocess is running. The lines are decoded only when
+ * CompletedProcess#stdout() is called for the first time. This is the cheapest
+ * mode if you look at the return code only, or search the bytes for a token.</p>
+ *
+ * <p>{@link #timeline()} records the lines of the STDOUT and the STDERR into one
+ * event log in the order they were read, each line with its stream, the time offset
+ * from the start of the subprocess and its size in bytes; see CompletedProcess#timeline().
+ * This is useful to analyze where a slow command spends its time.
+ * {@link #timeline(int, int)} bounds the event log as headTail() bounds the lines.</p>
+ *
+ * <p>A CapturePolicy is immutable; you can share it among threads.</p>
+ */
+public final class CapturePolicy {
+
+    public static final int UNLIMITED = -1;
+
+    public static final int DEFAULT_MAX_LINE_LENGTH = 64 * 1024;
+
+    private static final CapturePolicy UNLIMITED_POLICY =
+            new CapturePolicy(UNLIMITED, UNLIMITED, UNLIMITED, false, false);
+
+    private static final CapturePolicy RAW_POLICY =
+            new CapturePolicy(UNLIMITED, UNLIMITED, UNLIMITED, true, false);
+
+    private static final CapturePolicy TIMELINE_POLICY =
+            new CapturePolicy(UNLIMITED, UNLIMITED, UNLIMITED, false, true);
+
+    private final int headLines;
+    private final int tailLines;
+    private final int maxLineLength;
+    private final boolean raw;
+    private final boolean timeline;
+
+    private CapturePolicy(int headLines, int tailLines, int maxLineLength,
+                          boolean raw, boolean timeline) {
+        this.headLines = headLines;
+        this.tailLines = tailLines;
+        this.maxLineLength = maxLineLength;
+        this.raw = raw;
+        this.timeline = timeline;
+    }
+
+    /**
+     * @return the default policy that retains all lines as they are.
+     */
+    public static CapturePolicy unlimited() {
+        return UNLIMITED_POLICY;
+    }
+
+    /**
+     * @return the policy that retains all bytes as they are, and decodes them lazily.
+     */
+    public static CapturePolicy raw() {
+        return RAW_POLICY;
+    }
+
+    /**
+     * @return the policy that retains all lines of the STDOUT and the STDERR
+     * in one event log, with the stream, the time offset and the size of each line.
+     * Each line costs an OutputEvent of about 32 bytes on top of the String;
+     * CompletedProcess#stdout() and #stderr() copy the lines out of the event log.
+     */
+    public static CapturePolicy timeline() {
+        return TIMELINE_POLICY;
+    }
+
+    /**
+     * @param headLines the number of the first events to retain
+     * @param tailLines the number of the last events to retain
+     * @return a bounded timeline policy; the events between the head and the tail
+     * are dropped, and so are the lines of each stream as headTail() does.
+     * The lines retained for each stream are references to the Strings in the event log.
+     * Lines longer than DEFAULT_MAX_LINE_LENGTH chars will be split.
+     */
+    public static CapturePolicy timeline(int headLines, int tailLines) {
+        CapturePolicy p = headTail(headLines, tailLines);
+        return new CapturePolicy(p.headLines, p.tailLines, p.maxLineLength, false, true);
+    }
+
+    /**
+     * @param headLines the number of the first lines to retain
+     * @param tailLines the number of the last lines to retain
+     * @return a bounded policy. Lines longer than DEFAULT_MAX_LINE_LENGTH chars will be split.
+     */
+    public static CapturePolicy headTail(int headLines, int tailLines) {
+        if (headLines < 0) {
+            throw new IllegalArgumentException("headLines must not be negative: " + headLines);
+        }
+        if (tailLines < 0) {
+            throw new IllegalArgumentException("tailLines must not be negative: " + tailLines);
+        }
+        return new CapturePolicy(headLines, tailLines, DEFAULT_MAX_LINE_LENGTH, false, false);
+    }
+
+    /**
+     * @param maxLineLength a line longer than this number of chars will be split into multiple lines
+     * @return a new CapturePolicy with the given maxLineLength
+     */
+    public CapturePolicy maxLineLength(int maxLineLength) {
+        if (maxLineLength <= 0) {
+            throw new IllegalArgumentException("maxLineLength must be positive: " + maxLineLength);
+        }
+        if (raw) {
+            throw new IllegalStateException("maxLineLength is not applicable to the raw policy");
+        }
+        return new CapturePolicy(this.headLines, this.tailLines, maxLineLength, false, this.timeline);
+    }
+
+    /**
+     * @return the number of the first lines to retain; UNLIMITED if not bounded
+     */
+    public int headLines() {
+        return headLines;
+    }
+
+    /**
+     * @return the number of the last lines to retain; UNLIMITED if not bounded
+     */
+    public int tailLines() {
+        return tailLines;
+    }
+
+    /**
+     * @return the max number of chars in a line; UNLIMITED if lines are never split
+     */
+    public int maxLineLength() {
+        return maxLineLength;
+    }
+
+    /**
+     * @return true if this policy drops the lines between the head and the tail
+     */
+    public boolean isBounded() {
+        return headLines != UNLIMITED;
+    }
+
+    /**
+     * @return true if this policy retains the raw bytes
+     */
+    public boolean isRaw() {
+        return raw;
+    }
+
+    /**
+     * @return true if this policy records the lines of both streams in one event log
+     */
+    public boolean isTimeline() {
+        return timeline;
+    }
+
+    @Override
+    public String toString() {
+        if (raw) {
+            return "CapturePolicy(raw)";
+        } else if (timeline && isBounded()) {
+            return String.format("CapturePolicy(timeline, head=%d, tail=%d, maxLineLength=%d)",
+                    headLines, tailLines, maxLineLength);
+        } else if (timeline) {
+            return String.format("CapturePolicy(timeline, maxLineLength=%d)", maxLineLength);
+        } else if (isBounded()) {
+            return String.format("CapturePolicy(head=%d, tail=%d, maxLineLength=%d)",
+                    headLines, tailLines, maxLineLength);
+        } else {
+            return String.format("CapturePolicy(unlimited, maxLineLength=%d)", maxLineLength);
+        }
+    }
+}
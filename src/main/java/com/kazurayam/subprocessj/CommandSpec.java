@@ -0,0 +1,313 @@
+package com.kazurayam.subprocessj;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+
+/**
+ * CommandSpec is an immutable specification of a command to run repeatedly:
+ * an argv template with placeholders, the working directory, a snapshot of
+ * the environment variables and the CapturePolicy.
+ * It is validated once when built, and is safe to be executed by any number of
+ * threads concurrently; each execution uses a fresh ProcessBuilder.
+ *
+ * <PRE>
+ *     CommandSpec spec = new CommandSpec.Builder(Arrays.asList("lsof", "-i:{port}", "-P"))
+ *             .capturePolicy(CapturePolicy.headTail(100, 0))
+ *             .build();
+ *     CompletedProcess cp = spec.run(Collections.singletonMap("port", "8080"));
+ * </PRE>
+ *
+ * <p>A placeholder is written as {name} where the name consists of letters, digits and
+ * underscores, not starting with a digit. Other braces, such as "{}" of "find -exec",
+ * are taken literally. A value bound to a placeholder is passed as a part of the
+ * argument; it is never interpreted by a shell.</p>
+ */
+public final class CommandSpec {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{([A-Za-z_][A-Za-z0-9_]*)\\}");
+
+    private final List<String> template;
+    private final List<Object[]> compiled;
+    private final Set<String> placeholders;
+    private final File cwd;
+    private final Map<String, String> environment;
+    private final CapturePolicy capturePolicy;
+    private final Charset charset;
+    private final boolean redirectErrorStream;
+    private final Duration gracePeriod;
+
+    private CommandSpec(Builder builder) {
+        this.template = Collections.unmodifiableList(new ArrayList<>(builder.template));
+        this.cwd = builder.cwd;
+        this.environment = (builder.environment != null)
+                ? Collections.unmodifiableMap(new HashMap<>(builder.environment)) : null;
+        this.capturePolicy = builder.capturePolicy;
+        this.charset = builder.charset;
+        this.redirectErrorStream = builder.redirectErrorStream;
+        this.gracePeriod = builder.gracePeriod;
+        // split each argument into the literal parts (String) and the placeholders (Name)
+        List<Object[]> compiled = new ArrayList<>();
+        Set<String> placeholders = new LinkedHashSet<>();
+        for (String arg : template) {
+            Matcher m = PLACEHOLDER.matcher(arg);
+            List<Object> parts = new ArrayList<>();
+            int last = 0;
+            while (m.find()) {
+                if (m.start() > last) {
+                    parts.add(arg.substring(last, m.start()));
+                }
+                parts.add(new Name(m.group(1)));
+                placeholders.add(m.group(1));
+                last = m.end();
+            }
+            if (last < arg.length()) {
+                parts.add(arg.substring(last));
+            }
+            compiled.add(parts.toArray());
+        }
+        this.compiled = Collections.unmodifiableList(compiled);
+        this.placeholders = Collections.unmodifiableSet(placeholders);
+    }
+
+    public List<String> template() {
+        return template;
+    }
+
+    /**
+     * @return the names of the placeholders in the template, in the order of appearance
+     */
+    public Set<String> placeholders() {
+        return placeholders;
+    }
+
+    public File cwd() {
+        return cwd;
+    }
+
+    public CapturePolicy capturePolicy() {
+        return capturePolicy;
+    }
+
+    public Charset charset() {
+        return charset;
+    }
+
+    public boolean redirectErrorStream() {
+        return redirectErrorStream;
+    }
+
+    public Duration gracePeriod() {
+        return gracePeriod;
+    }
+
+    /**
+     * @return the whole environment variables of the command, or null if inherited from this JVM
+     */
+    Map<String, String> environmentSnapshot() {
+        return environment;
+    }
+
+    /**
+     * @param bindings the values of the placeholders
+     * @return the command line with the placeholders replaced
+     * @throws IllegalArgumentException if a placeholder is not bound
+     */
+    public List<String> command(Map<String, String> bindings) {
+        Objects.requireNonNull(bindings);
+        List<String> command = new ArrayList<>(compiled.size());
+        for (Object[] parts : compiled) {
+            if (parts.length == 1 && parts[0] instanceof String) {
+                command.add((String)parts[0]);
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Object part : parts) {
+                if (part instanceof Name) {
+                    String value = bindings.get(((Name)part).name);
+                    if (value == null) {
+                        throw new IllegalArgumentException(
+                                "placeholder {" + ((Name)part).name + "} is not bound");
+                    }
+                    sb.append(value);
+                } else {
+                    sb.append((String)part);
+                }
+            }
+            command.add(sb.toString());
+        }
+        return command;
+    }
+
+    /**
+     * Run the command which has no placeholder.
+     * @return a Subprocess.CompletedProcess instance
+     * @throws IOException when failed to start the subprocess
+     * @throws InterruptedException when the calling thread was interrupted while waiting
+     */
+    public CompletedProcess run() throws IOException, InterruptedException {
+        return run(Collections.emptyMap());
+    }
+
+    /**
+     * @param bindings the values of the placeholders
+     * @return a Subprocess.CompletedProcess instance
+     * @throws IOException when failed to start the subprocess
+     * @throws InterruptedException when the calling thread was interrupted while waiting
+     */
+    public CompletedProcess run(Map<String, String> bindings)
+            throws IOException, InterruptedException {
+        return new Subprocess(this).run(command(bindings));
+    }
+
+    /**
+     * @param bindings the values of the placeholders
+     * @param timeout how long to wait for the subprocess to finish
+     * @return a Subprocess.CompletedProcess instance
+     * @throws IOException when failed to start the subprocess
+     * @throws InterruptedException when the calling thread was interrupted while waiting
+     */
+    public CompletedProcess run(Map<String, String> bindings, Duration timeout)
+            throws IOException, InterruptedException {
+        return new Subprocess(this).run(command(bindings), timeout);
+    }
+
+    /**
+     * @param bindings the values of the placeholders
+     * @return a CompletableFuture of CompletedProcess; see Subprocess#runAsync(List)
+     */
+    public CompletableFuture<CompletedProcess> runAsync(Map<String, String> bindings) {
+        return new Subprocess(this).runAsync(command(bindings));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<CommandSpec>");
+        sb.append("<command>");
+        sb.append(new CompletedProcess(template).commandline());
+        sb.append("</command>");
+        sb.append("<cwd>");
+        sb.append(cwd.getPath());
+        sb.append("</cwd>");
+        sb.append("</CommandSpec>");
+        return sb.toString();
+    }
+
+    private static final class Name {
+        private final String name;
+        Name(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Employing the "Builder" pattern of "Effective Java"
+     */
+    public static class Builder {
+        // required params
+        private final List<String> template;
+        // optional params
+        private File cwd;
+        private Map<String, String> environment;
+        private CapturePolicy capturePolicy;
+        private Charset charset;
+        private boolean redirectErrorStream;
+        private Duration gracePeriod;
+
+        /**
+         * @param template E.g, Arrays.asList("lsof", "-i:{port}", "-P")
+         */
+        public Builder(List<String> template) {
+            Objects.requireNonNull(template);
+            if (template.isEmpty()) {
+                throw new IllegalArgumentException("template must not be empty");
+            }
+            for (Object arg : template) {
+                if (! (arg instanceof String)) {
+                    throw new IllegalArgumentException(
+                            String.format("given argument \"%s\" is not a java.lang.String, is an instance of %s",
+                                    arg, (arg != null) ? arg.getClass().getName() : "null"));
+                }
+            }
+            this.template = new ArrayList<>(template);
+            this.cwd = new File(".");
+            this.environment = null;
+            this.capturePolicy = CapturePolicy.unlimited();
+            this.charset = Charset.defaultCharset();
+            this.redirectErrorStream = false;
+            this.gracePeriod = Subprocess.DEFAULT_GRACE_PERIOD;
+        }
+        public Builder cwd(File cwd) {
+            Objects.requireNonNull(cwd);
+            if (! cwd.isDirectory()) {
+                throw new IllegalArgumentException(cwd.getAbsolutePath() + " is not a directory");
+            }
+            this.cwd = cwd;
+            return this;
+        }
+        /**
+         * Add or replace an environment variable. The environment of this JVM is copied at the first call.
+         */
+        public Builder environment(String key, String value) {
+            Objects.requireNonNull(key);
+            Objects.requireNonNull(value);
+            environment__().put(key, value);
+            return this;
+        }
+        public Builder removeEnvironment(String key) {
+            Objects.requireNonNull(key);
+            environment__().remove(key);
+            return this;
+        }
+        public Builder clearEnvironment() {
+            environment__().clear();
+            return this;
+        }
+        private Map<String, String> environment__() {
+            if (environment == null) {
+                environment = new HashMap<>(System.getenv());
+            }
+            return environment;
+        }
+        public Builder capturePolicy(CapturePolicy capturePolicy) {
+            Objects.requireNonNull(capturePolicy);
+            this.capturePolicy = capturePolicy;
+            return this;
+        }
+        public Builder charset(Charset charset) {
+            Objects.requireNonNull(charset);
+            this.charset = charset;
+            return this;
+        }
+        public Builder redirectErrorStream(boolean redirectErrorStream) {
+            this.redirectErrorStream = redirectErrorStream;
+            return this;
+        }
+        public Builder gracePeriod(Duration gracePeriod) {
+            Objects.requireNonNull(gracePeriod);
+            if (gracePeriod.isNegative()) {
+                throw new IllegalArgumentException("gracePeriod must not be negative: " + gracePeriod);
+            }
+            this.gracePeriod = gracePeriod;
+            return this;
+        }
+        public CommandSpec build() {
+            return new CommandSpec(this);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.kazurayam.subprocessj;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+
+/**
+ * Hands the lines of the STDOUT (or the STDERR) of a subprocess to a Downstream
+ * only as many as the Downstream requested. While the demand is zero, the thread
+ * reading the stream waits without reading; the OS pipe buffer fills up and the
+ * subprocess blocks on writing, so a slow Downstream throttles the subprocess.
+ * The other stream is captured into the CompletedProcess by the CapturePolicy.
+ *
+ * This is the core of OutputPublisher, the java.util.concurrent.Flow.Publisher
+ * in src/main/java9; it is written without Flow so that it works on Java 8 as well.
+ * The signals follow the Reactive Streams rules: onNext is called serially and
+ * never more than requested, then onComplete or onError is called at most once,
+ * and none is called after cancel(). The error of a non-positive request is signalled
+ * after the thread reading the stream stopped, so it never overlaps an onNext.
+ */
+final class DemandDrivenOutput {
+
+    interface Downstream {
+        void onNext(String line);
+        void onError(Throwable throwable);
+        void onComplete();
+    }
+
+    private final Subprocess subprocess;
+    private final List<String> command;
+    private final OutputEvent.Stream stream;
+    private final Downstream downstream;
+    private final Object lock = new Object();
+    private long demand;
+    private boolean cancelled;
+    private Throwable failure;
+    private RunningProcess running;
+    private final CompletableFuture<CompletedProcess> exit;
+
+    DemandDrivenOutput(Subprocess subprocess, List<String> command,
+                       OutputEvent.Stream stream, Downstream downstream) {
+        this.subprocess = Objects.requireNonNull(subprocess);
+        this.command = Objects.requireNonNull(command);
+        this.stream = Objects.requireNonNull(stream);
+        this.downstream = Objects.requireNonNull(downstream);
+        this.demand = 0;
+        this.cancelled = false;
+        this.failure = null;
+        this.running = null;
+        this.exit = new CompletableFuture<>();
+    }
+
+    OutputEvent.Stream stream() {
+        return stream;
+    }
+
+    /**
+     * Start the subprocess. The Downstream is signalled onError if it failed to start.
+     */
+    void start() {
+        RunningProcess rp;
+        try {
+            rp = subprocess.startDemandDriven(command, this);
+        } catch (IOException | RuntimeException e) {
+            exit.completeExceptionally(e);
+            signalError__(e);
+            return;
+        }
+        synchronized (lock) {
+            running = rp;
+            if (cancelled || failure != null) {
+                stop__(rp);
+            }
+        }
+        // the stream has been read to the end, or the reading stopped, by now
+        rp.onExit().whenComplete((cp, throwable) -> {
+            if (throwable == null) {
+                exit.complete(cp);
+                Throwable f;
+                synchronized (lock) {
+                    f = failure;
+                }
+                if (f != null) {
+                    signalError__(f);
+                } else if (! isCancelled()) {
+                    downstream.onComplete();
+                }
+            } else {
+                Throwable cause = (throwable instanceof CompletionException && throwable.getCause() != null)
+                        ? throwable.getCause() : throwable;
+                stop__(rp);
+                exit.completeExceptionally(cause);
+                signalError__(cause);
+            }
+        });
+    }
+
+    /**
+     * signal the failure of a non-positive request in preference to the cause
+     */
+    private void signalError__(Throwable cause) {
+        Throwable f;
+        synchronized (lock) {
+            if (cancelled) {
+                return;
+            }
+            f = (failure != null) ? failure : cause;
+        }
+        downstream.onError(f);
+    }
+
+    /**
+     * @param n the number of lines to add to the demand; Long.MAX_VALUE for unbounded
+     */
+    void request(long n) {
+        if (n <= 0) {
+            // Reactive Streams rule 3.9; onError is signalled when the reading stopped
+            RunningProcess rp;
+            synchronized (lock) {
+                if (cancelled || failure != null) {
+                    return;
+                }
+                failure = new IllegalArgumentException("non-positive request: " + n);
+                lock.notifyAll();
+                rp = running;
+            }
+            if (rp != null) {
+                stop__(rp);
+            }
+            return;
+        }
+        synchronized (lock) {
+            if (failure != null) {
+                return;
+            }
+            demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stop the delivery, and stop the subprocess in background.
+     */
+    void cancel() {
+        RunningProcess rp;
+        synchronized (lock) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            lock.notifyAll();
+            rp = running;
+        }
+        if (rp != null) {
+            stop__(rp);
+        }
+    }
+
+    boolean isCancelled() {
+        synchronized (lock) {
+            return cancelled;
+        }
+    }
+
+    /**
+     * @return true if the subprocess is being stopped by cancel() or a non-positive request
+     */
+    boolean isStopped() {
+        synchronized (lock) {
+            return cancelled || failure != null;
+        }
+    }
+
+    /**
+     * @return a future completed when the subprocess exited and its output was consumed
+     */
+    CompletableFuture<CompletedProcess> onExit() {
+        return exit;
+    }
+
+    /**
+     * Called by the thread reading the stream for each line; waits until the line is requested.
+     * @throws CancellationException when cancelled or failed, to stop reading the stream
+     */
+    void emit(String line) {
+        synchronized (lock) {
+            while (demand == 0 && ! cancelled && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    // stops the subprocess as well
+                    cancel();
+                }
+            }
+            if (cancelled || failure != null) {
+                throw new CancellationException();
+            }
+            if (demand != Long.MAX_VALUE) {
+                demand--;
+            }
+        }
+        try {
+            downstream.onNext(line);
+        } catch (RuntimeException e) {
+            // Reactive Streams rule 2.13: the Subscription is considered cancelled
+            cancel();
+            throw e;
+        }
+    }
+
+    /**
+     * stop the subprocess without blocking the caller, which may be the Downstream,
+     * by a thread of the executor of the Subprocess; see Subprocess#executor()
+     */
+    private void stop__(RunningProcess rp) {
+        if (rp.isAlive()) {
+            subprocess.executor__().execute(rp::close);
+        }
+    }
+}
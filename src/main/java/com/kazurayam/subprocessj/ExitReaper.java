@@ -0,0 +1,96 @@
+package com.kazurayam.subprocessj;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ExitReaper watches all the subprocesses registered to it by a single daemon thread,
+ * and completes a future per process when the process exits; instead of a thread
+ * per process blocked in Process#waitFor().
+ *
+ * <p>The thread polls Process#isAlive() of all the live processes in a round,
+ * then sleeps with an adaptive interval (from 1 ms up to 20 ms), which is reset
+ * when a process is registered or has exited. The thread parks without polling
+ * while no process is registered. The futures are completed by this thread,
+ * so the dependent actions should be quick.</p>
+ *
+ * On Java 9 and later, this class is overridden by the variant in
+ * src/main/java9, which relies on ProcessHandle#onExit().
+ */
+final class ExitReaper {
+
+    private static final long MIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private static final Queue<Entry> incoming = new ConcurrentLinkedQueue<>();
+
+    private static Thread thread = null;
+
+    private ExitReaper() {}
+
+    /**
+     * @param process a Process started
+     * @return a future completed with the exit value when the process exited
+     */
+    static CompletableFuture<Integer> onExit(Process process) {
+        if (! process.isAlive()) {
+            return CompletableFuture.completedFuture(process.exitValue());
+        }
+        Entry entry = new Entry(process);
+        incoming.add(entry);
+        LockSupport.unpark(thread());
+        return entry.future;
+    }
+
+    private static synchronized Thread thread() {
+        if (thread == null) {
+            thread = new Thread(ExitReaper::run__, "subprocessj-exit-reaper");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return thread;
+    }
+
+    private static void run__() {
+        List<Entry> entries = new ArrayList<>();
+        long interval = MIN_INTERVAL_NANOS;
+        while (true) {
+            Entry e;
+            while ((e = incoming.poll()) != null) {
+                entries.add(e);
+                interval = MIN_INTERVAL_NANOS;
+            }
+            if (entries.isEmpty()) {
+                // unparked by onExit()
+                LockSupport.park(ExitReaper.class);
+                continue;
+            }
+            boolean reaped = false;
+            Iterator<Entry> it = entries.iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (! entry.process.isAlive()) {
+                    it.remove();
+                    reaped = true;
+                    entry.future.complete(entry.process.exitValue());
+                }
+            }
+            interval = reaped ? MIN_INTERVAL_NANOS : Math.min(interval * 2, MAX_INTERVAL_NANOS);
+            LockSupport.parkNanos(ExitReaper.class, interval);
+        }
+    }
+
+    private static final class Entry {
+        final Process process;
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        Entry(Process process) {
+            this.process = process;
+        }
+    }
+}
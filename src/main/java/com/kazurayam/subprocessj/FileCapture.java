@@ -0,0 +1,70 @@
+package com.kazurayam.subprocessj;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Represents a stream which the OS wrote directly into a file
+ * by ProcessBuilder.Redirect.to(file). No byte comes to write();
+ * the file is memory-mapped when the lines are asked for the first time,
+ * and stays mapped until this capture is garbage-collected.
+ */
+final class FileCapture extends OutputCapture {
+
+    private final File file;
+    private final Charset charset;
+    private MappedLines mapped;
+
+    FileCapture(File file, Charset charset) {
+        this.file = file;
+        this.charset = charset;
+        this.mapped = null;
+    }
+
+    File file() {
+        return file;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        throw new IllegalStateException("redirected to " + file);
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+
+    synchronized MappedLines mapped() {
+        if (mapped == null) {
+            try {
+                mapped = MappedLines.open(file.toPath(), charset);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return mapped;
+    }
+
+    @Override
+    List<String> lines() {
+        return mapped();
+    }
+
+    @Override
+    long lineCount() {
+        return mapped().size();
+    }
+
+    @Override
+    byte[] bytes() {
+        ByteBuffer bb = mapped().bytes();
+        byte[] result = new byte[bb.remaining()];
+        bb.get(result);
+        return result;
+    }
+}
@@ -0,0 +1,28 @@
+package com.kazurayam.subprocessj;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the ExecutorService that Subprocess shares to consume
+ * the STDOUT/STDERR of subprocesses.
+ *
+ * On Java 21 and later, this class is overridden by the variant in
+ * src/main/java21, which runs the gobblers on virtual threads.
+ */
+final class GobblerExecutors {
+
+    private GobblerExecutors() {}
+
+    /**
+     * A cached thread pool of daemon threads. Threads are reused by the following
+     * subprocesses, and are retired after 60 seconds idle. The pool is not bounded
+     * because a gobbler blocks on reading until its subprocess closes the stream;
+     * a bounded pool could starve the gobblers of concurrent subprocesses.
+     *
+     * @return a new ExecutorService
+     */
+    static ExecutorService newDefault() {
+        return Executors.newCachedThreadPool(new DaemonThreadFactory("subprocessj-gobbler-"));
+    }
+}
@@ -0,0 +1,261 @@
+package com.kazurayam.subprocessj;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * JavaLauncher builds the command line to start a Java program in a child JVM,
+ * with the java command of the current JVM (java.home).
+ * It makes the child JVM start faster by Application Class-Data Sharing (AppCDS):
+ * the classes loaded by the first launch of a main class are dumped into an archive,
+ * which is mapped into the memory by the later launches.
+ *
+ * <PRE>
+ *     JavaLauncher launcher = new JavaLauncher(Arrays.asList(new File("build/libs/app.jar")));
+ *     CompletedProcess cp = new Subprocess().run(
+ *             launcher.command("com.example.Main", Arrays.asList("arg1")));
+ * </PRE>
+ *
+ * <ul>
+ * <li>JDK 19 and later: -XX:+AutoCreateSharedArchive -XX:SharedArchiveFile=... ;
+ * the child JVM creates and validates the archive by itself</li>
+ * <li>JDK 13 to 18: -XX:ArchiveClassesAtExit=... at the first launch,
+ * -XX:SharedArchiveFile=... at the later launches</li>
+ * <li>JDK 12 and older: no CDS option is added</li>
+ * </ul>
+ *
+ * <p>The name of the archive contains two hashes: one of the main class, the java.home,
+ * the JVM options and the paths of the classpath entries, which identifies the launcher;
+ * another of the JVM version and the size and last modified time of each classpath entry,
+ * so the archive is invalidated automatically when a jar is rebuilt. Stale archives
+ * of the same launcher are deleted; launchers with different classpaths keep their own. The archives are stored in the directory given by cdsDirectory(),
+ * as default "subprocessj-cds" in java.io.tmpdir.</p>
+ *
+ * <p>Note that CDS works with jar files only; if a directory is on the classpath,
+ * no CDS option is added.</p>
+ */
+public class JavaLauncher {
+
+    private static final Set<String> dumping = ConcurrentHashMap.newKeySet();
+
+    private final List<File> classpath;
+    private final List<String> jvmOptions;
+    private File cdsDirectory;
+    private boolean appCDS;
+
+    /**
+     * @param classpath the jars and directories from which the main class is loaded
+     */
+    public JavaLauncher(List<File> classpath) {
+        Objects.requireNonNull(classpath);
+        this.classpath = new ArrayList<>(classpath);
+        this.jvmOptions = new ArrayList<>();
+        this.cdsDirectory = new File(System.getProperty("java.io.tmpdir"), "subprocessj-cds");
+        this.appCDS = true;
+    }
+
+    /**
+     * @param jvmOptions E.g, Arrays.asList("-Xmx256m", "-Dfoo=bar")
+     * @return the JavaLauncher object. for functional call chaining.
+     */
+    public JavaLauncher jvmOptions(List<String> jvmOptions) {
+        Objects.requireNonNull(jvmOptions);
+        this.jvmOptions.addAll(jvmOptions);
+        return this;
+    }
+
+    /**
+     * @param cdsDirectory the directory to store the CDS archives in
+     * @return the JavaLauncher object. for functional call chaining.
+     */
+    public JavaLauncher cdsDirectory(File cdsDirectory) {
+        Objects.requireNonNull(cdsDirectory);
+        this.cdsDirectory = cdsDirectory;
+        return this;
+    }
+
+    /**
+     * @param appCDS false not to use the CDS archives
+     * @return the JavaLauncher object. for functional call chaining.
+     */
+    public JavaLauncher appCDS(boolean appCDS) {
+        this.appCDS = appCDS;
+        return this;
+    }
+
+    /**
+     * @param mainClass the fully qualified name of the main class
+     * @param args the arguments passed to the main method
+     * @return the command line, E.g, ["/usr/lib/jvm/java-17/bin/java", "-XX:SharedArchiveFile=...",
+     * "-cp", "app.jar", "com.example.Main", "arg1"]
+     */
+    public List<String> command(String mainClass, List<String> args) {
+        Objects.requireNonNull(mainClass);
+        Objects.requireNonNull(args);
+        List<String> command = new ArrayList<>();
+        command.add(javaCommand());
+        command.addAll(jvmOptions);
+        if (appCDS) {
+            command.addAll(cdsOptions(mainClass));
+        }
+        if (! classpath.isEmpty()) {
+            command.add("-cp");
+            command.add(classpath.stream()
+                    .map(File::getAbsolutePath)
+                    .collect(Collectors.joining(File.pathSeparator)));
+        }
+        command.add(mainClass);
+        command.addAll(args);
+        return command;
+    }
+
+    private List<String> cdsOptions(String mainClass) {
+        int version = javaFeatureVersion();
+        if (version < 13 || classpath.stream().anyMatch(File::isDirectory)) {
+            // the JVM refuses to dump an archive with a non-empty directory on the classpath
+            return Collections.emptyList();
+        }
+        Path archive = archive(mainClass);
+        try {
+            Files.createDirectories(archive.getParent());
+        } catch (IOException e) {
+            // launch without CDS
+            return Collections.emptyList();
+        }
+        deleteStaleArchives(archive);
+        List<String> options = new ArrayList<>();
+        // do not let the warnings about the archive mix up with the output of the program
+        options.add("-Xlog:cds*=off");
+        if (version >= 19) {
+            options.add("-XX:+AutoCreateSharedArchive");
+            options.add("-XX:SharedArchiveFile=" + archive);
+        } else if (Files.exists(archive)) {
+            dumping.remove(archive.toString());
+            options.add("-XX:SharedArchiveFile=" + archive);
+        } else if (claimDump(archive)) {
+            // the archive is written when the child JVM exits;
+            // other launches in the meantime run without CDS
+            options.add(dumpOption(archive));
+        } else {
+            return Collections.emptyList();
+        }
+        return options;
+    }
+
+    private static String dumpOption(Path archive) {
+        return "-XX:ArchiveClassesAtExit=" + archive;
+    }
+
+    /**
+     * @return true if the caller should launch the child JVM which dumps the archive.
+     * The claim is released when the archive appeared, or when no child JVM dumping
+     * the archive is running any longer, e.g. the dump failed; then it is tried again.
+     */
+    private static synchronized boolean claimDump(Path archive) {
+        String key = archive.toString();
+        if (dumping.add(key)) {
+            return true;
+        }
+        if (Files.exists(archive)) {
+            dumping.remove(key);
+            return false;
+        }
+        return ! Processes.isChildRunning(dumpOption(archive));
+    }
+
+    /**
+     * @param mainClass the fully qualified name of the main class
+     * @return the path of the CDS archive for the main class and the current classpath
+     */
+    public Path archive(String mainClass) {
+        StringBuilder identity = new StringBuilder();
+        identity.append(mainClass).append('\n');
+        identity.append(System.getProperty("java.home")).append('\n');
+        identity.append(String.join(" ", jvmOptions)).append('\n');
+        StringBuilder version = new StringBuilder();
+        version.append(System.getProperty("java.vm.version")).append('\n');
+        for (File entry : classpath) {
+            identity.append(entry.getAbsolutePath()).append('\n');
+            version.append(entry.length()).append(' ')
+                    .append(entry.lastModified()).append('\n');
+        }
+        return cdsDirectory.toPath().resolve(
+                mainClass + "-" + sha1(identity.toString()) + "-" + sha1(version.toString()) + ".jsa");
+    }
+
+    /**
+     * delete the archives of this launcher made for the older jars or JVM
+     */
+    private void deleteStaleArchives(Path archive) {
+        String name = archive.getFileName().toString();
+        final String prefix = name.substring(0, name.lastIndexOf('-') + 1);
+        try (Stream<Path> files = Files.list(archive.getParent())) {
+            files.filter(f -> f.getFileName().toString().startsWith(prefix))
+                    .filter(f -> f.getFileName().toString().endsWith(".jsa"))
+                    .filter(f -> ! f.equals(archive))
+                    .forEach(f -> {
+                        try {
+                            Files.deleteIfExists(f);
+                        } catch (IOException ignore) {
+                            // may be in use by a running JVM
+                        }
+                    });
+        } catch (IOException ignore) {
+            // the stale archives are left
+        }
+    }
+
+    private static String sha1(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the path of the java command of the current JVM
+     */
+    public static String javaCommand() {
+        Path bin = Paths.get(System.getProperty("java.home"), "bin");
+        return bin.resolve(OSType.isWindows() ? "java.exe" : "java").toString();
+    }
+
+    /**
+     * @return the feature version of the current JVM, E.g, 8 for "1.8", 17 for "17"
+     */
+    public static int javaFeatureVersion() {
+        return javaFeatureVersion(System.getProperty("java.specification.version"));
+    }
+
+    static int javaFeatureVersion(String specificationVersion) {
+        String v = specificationVersion;
+        if (v.startsWith("1.")) {
+            v = v.substring(2);
+        }
+        int dot = v.indexOf('.');
+        if (dot > 0) {
+            v = v.substring(0, dot);
+        }
+        return Integer.parseInt(v);
+    }
+}
@@ -0,0 +1,257 @@
+package com.kazurayam.subprocessj;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The main class of a worker JVM started by JvmWorkerPool.
+ *
+ * <PRE>
+ *     $ java -cp subprocessj.jar com.kazurayam.subprocessj.JvmWorker \
+ *           &lt;classpath&gt; &lt;port&gt; &lt;token&gt; &lt;charset&gt; raw|lines &lt;headLines&gt; &lt;tailLines&gt; &lt;maxLineLength&gt;
+ * </PRE>
+ *
+ * <p>The worker connects to the loopback port opened by the pool, and talks over
+ * the socket, not over its STDIN and STDOUT; a native library or a leftover thread
+ * writing into the file descriptor 1 can not corrupt the protocol.
+ * The messages are in the format of java.io.DataOutput:</p>
+ * <ul>
+ * <li>handshake: int READY, long token</li>
+ * <li>request: UTF mainClass, int argc, UTF args...</li>
+ * <li>response: int RESPONSE, boolean exited, int returncode, the capture of STDOUT, the capture of STDERR</li>
+ * <li>capture, raw: int length + bytes</li>
+ * <li>capture, lines: long lineCount, long droppedLines, long droppedChars,
+ * int number of lines, (int length + bytes in UTF-8) of each line</li>
+ * </ul>
+ *
+ * <p>Each run loads the main class with a fresh URLClassLoader over the classpath,
+ * so that static fields do not leak from a run to another. System.out and System.err
+ * are redirected into captures of the CapturePolicy of the pool while the main method
+ * runs, so a bounded policy bounds the memory of the worker as well.
+ * If the main method calls System.exit(), a shutdown hook sends the captured output
+ * with exited=true; then JvmWorkerPool takes the exit value of the worker as the returncode.</p>
+ */
+public final class JvmWorker {
+
+    static final int READY = 0x534a5752;
+    static final int RESPONSE = 0x534a5753;
+
+    private static final Object lock = new Object();
+    private static DataOutputStream protocol;
+    private static CapturePolicy policy;
+    private static Charset charset;
+    private static PrintStream currentOut = null;
+    private static PrintStream currentErr = null;
+    private static OutputCapture currentStdout = null;
+    private static OutputCapture currentStderr = null;
+
+    private JvmWorker() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 8) {
+            throw new IllegalArgumentException("expected 8 arguments but got " + args.length);
+        }
+        URL[] classpath = toURLs(args[0]);
+        charset = Charset.forName(args[3]);
+        policy = policy__(args[4], Integer.parseInt(args[5]),
+                Integer.parseInt(args[6]), Integer.parseInt(args[7]));
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[1]));
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        protocol = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        Runtime.getRuntime().addShutdownHook(new Thread(JvmWorker::onExit__));
+        synchronized (lock) {
+            protocol.writeInt(READY);
+            protocol.writeLong(Long.parseLong(args[2]));
+            protocol.flush();
+        }
+        while (true) {
+            String mainClass;
+            String[] mainArgs;
+            try {
+                mainClass = in.readUTF();
+                mainArgs = new String[in.readInt()];
+                for (int i = 0; i < mainArgs.length; i++) {
+                    mainArgs[i] = in.readUTF();
+                }
+            } catch (EOFException e) {
+                // the pool has closed the socket
+                return;
+            }
+            run__(classpath, mainClass, mainArgs);
+        }
+    }
+
+    /**
+     * the reverse of JvmWorkerPool.workerCommand()
+     */
+    private static CapturePolicy policy__(String kind, int headLines, int tailLines, int maxLineLength) {
+        if (kind.equals("raw")) {
+            return CapturePolicy.raw();
+        }
+        CapturePolicy p = (headLines == CapturePolicy.UNLIMITED)
+                ? CapturePolicy.unlimited()
+                : CapturePolicy.headTail(headLines, tailLines);
+        return (maxLineLength == CapturePolicy.UNLIMITED) ? p : p.maxLineLength(maxLineLength);
+    }
+
+    private static void run__(URL[] classpath, String mainClass, String[] mainArgs) throws IOException {
+        PrintStream originalOut = System.out;
+        PrintStream originalErr = System.err;
+        InputStream originalIn = System.in;
+        OutputCapture stdout = OutputCapture.create(policy, charset);
+        OutputCapture stderr = OutputCapture.create(policy, charset);
+        // encode in the charset the captures decode in
+        PrintStream out = new PrintStream(new SinkOutputStream(stdout), true, charset.name());
+        PrintStream err = new PrintStream(new SinkOutputStream(stderr), true, charset.name());
+        synchronized (lock) {
+            currentOut = out;
+            currentErr = err;
+            currentStdout = stdout;
+            currentStderr = stderr;
+        }
+        int returncode = 0;
+        System.setOut(out);
+        System.setErr(err);
+        System.setIn(new ByteArrayInputStream(new byte[0]));
+        ClassLoader parent = ClassLoader.getSystemClassLoader().getParent();
+        try (URLClassLoader loader = new URLClassLoader(classpath, parent)) {
+            Thread.currentThread().setContextClassLoader(loader);
+            Method main = Class.forName(mainClass, true, loader).getMethod("main", String[].class);
+            if (! Modifier.isStatic(main.getModifiers())) {
+                throw new NoSuchMethodException(mainClass + ".main(String[]) is not static");
+            }
+            main.invoke(null, (Object) mainArgs);
+        } catch (InvocationTargetException e) {
+            e.getCause().printStackTrace(err);
+            returncode = 1;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            err.println("Error: could not run " + mainClass + ": " + e);
+            returncode = 1;
+        } finally {
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+            System.setIn(originalIn);
+            Thread.currentThread().setContextClassLoader(ClassLoader.getSystemClassLoader());
+        }
+        synchronized (lock) {
+            currentOut = null;
+            currentErr = null;
+            currentStdout = null;
+            currentStderr = null;
+            respond__(false, returncode, out, stdout, err, stderr);
+        }
+    }
+
+    /**
+     * called by the shutdown hook; if a main method is running, it must have called System.exit()
+     */
+    private static void onExit__() {
+        synchronized (lock) {
+            if (currentStdout != null) {
+                try {
+                    respond__(true, -1, currentOut, currentStdout, currentErr, currentStderr);
+                } catch (IOException e) {
+                    // the pool is gone; nothing to do
+                }
+            }
+        }
+    }
+
+    private static void respond__(boolean exited, int returncode,
+                                  PrintStream out, OutputCapture stdout,
+                                  PrintStream err, OutputCapture stderr)
+            throws IOException {
+        // a leftover thread may still write into them; the captures are not thread-safe
+        synchronized (out) {
+            out.flush();
+            stdout.close();
+        }
+        synchronized (err) {
+            err.flush();
+            stderr.close();
+        }
+        protocol.writeInt(RESPONSE);
+        protocol.writeBoolean(exited);
+        protocol.writeInt(returncode);
+        synchronized (out) {
+            writeCapture__(stdout);
+        }
+        synchronized (err) {
+            writeCapture__(stderr);
+        }
+        protocol.flush();
+    }
+
+    private static void writeCapture__(OutputCapture capture) throws IOException {
+        if (policy.isRaw()) {
+            byte[] bytes = capture.bytes();
+            protocol.writeInt(bytes.length);
+            protocol.write(bytes);
+        } else {
+            List<String> lines = capture.lines();
+            protocol.writeLong(capture.lineCount());
+            protocol.writeLong(capture.droppedLines());
+            protocol.writeLong(capture.droppedChars());
+            protocol.writeInt(lines.size());
+            for (String line : lines) {
+                byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                protocol.writeInt(bytes.length);
+                protocol.write(bytes);
+            }
+        }
+    }
+
+    private static URL[] toURLs(String classpath) throws MalformedURLException {
+        List<URL> urls = new ArrayList<>();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (entry.length() > 0) {
+                urls.add(new File(entry).toURI().toURL());
+            }
+        }
+        return urls.toArray(new URL[0]);
+    }
+
+    /**
+     * feeds what the main method prints into an OutputCapture;
+     * the PrintStream around it serializes the writes
+     */
+    private static final class SinkOutputStream extends OutputStream {
+        private final StreamSink sink;
+
+        SinkOutputStream(StreamSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void write(int b) {
+            sink.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            sink.write(b, off, len);
+        }
+    }
+}
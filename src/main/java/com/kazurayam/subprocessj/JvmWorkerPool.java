@@ -0,0 +1,489 @@
+package com.kazurayam.subprocessj;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+
+/**
+ * JvmWorkerPool keeps a number of worker JVMs started in advance, and runs
+ * the main method of Java classes in them. The cost of booting a JVM
+ * (often more than a second) is paid in advance, not per invocation.
+ *
+ * <PRE>
+ *     try (JvmWorkerPool pool = new JvmWorkerPool.Builder(
+ *                 Arrays.asList(new File("build/classes/java/main")))
+ *                 .size(2).build()) {
+ *         CompletedProcess cp = pool.run("com.example.Hello", Arrays.asList("world"));
+ *         System.out.println(cp.returncode());
+ *         cp.stdout().forEach(System.out::println);
+ *     }
+ * </PRE>
+ *
+ * <p>Each run loads the main class with a fresh class loader, so static state
+ * does not leak from a run to another. A worker is recycled (a new JVM is started
+ * in place of it) after it served maxRunsPerWorker runs, or when the main method
+ * called System.exit().</p>
+ *
+ * <p>The output of a run is captured in the worker according to the CapturePolicy,
+ * and sent to the pool over a loopback socket. Writes into the file descriptor 1
+ * bypassing System.out go to the STDOUT of this JVM.</p>
+ *
+ * <p>Note that the main method runs synchronously; threads left running by the main
+ * method keep running in the worker, and their output after the main method returned
+ * is discarded. A main class that starts a server and returns is better started by
+ * Subprocess.</p>
+ */
+public class JvmWorkerPool implements Closeable {
+
+    public static final int DEFAULT_MAX_RUNS_PER_WORKER = 100;
+
+    private final List<File> classpath;
+    private final List<String> jvmOptions;
+    private final int size;
+    private final int maxRunsPerWorker;
+    private final CapturePolicy capturePolicy;
+    private final Charset charset;
+    private final BlockingQueue<Worker> idle;
+    private final AtomicInteger missing = new AtomicInteger(0);
+    private volatile boolean closed;
+
+    private JvmWorkerPool(Builder builder) throws IOException {
+        this.classpath = Collections.unmodifiableList(new ArrayList<>(builder.classpath));
+        this.jvmOptions = Collections.unmodifiableList(new ArrayList<>(builder.jvmOptions));
+        this.size = builder.size;
+        this.maxRunsPerWorker = builder.maxRunsPerWorker;
+        this.capturePolicy = builder.capturePolicy;
+        this.charset = builder.charset;
+        this.idle = new LinkedBlockingQueue<>();
+        this.closed = false;
+        for (int i = 0; i < size; i++) {
+            idle.add(new Worker());
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Run the main method of a class in one of the workers.
+     * Blocks while all the workers are busy.
+     *
+     * @param mainClass the fully qualified name of a class with a main method
+     * @param args the arguments passed to the main method
+     * @return a CompletedProcess with the returncode, STDOUT and STDERR of the run
+     * @throws IOException if the worker JVM failed
+     * @throws InterruptedException if the calling thread was interrupted while waiting for a worker
+     */
+    public CompletedProcess run(String mainClass, List<String> args)
+            throws IOException, InterruptedException {
+        Objects.requireNonNull(mainClass);
+        Objects.requireNonNull(args);
+        for (Object arg : args) {
+            if (! (arg instanceof String)) {
+                throw new IllegalArgumentException(
+                        "args must be a List of String, but found " + arg);
+            }
+        }
+        Worker worker = take__();
+        CompletedProcess cp;
+        try {
+            cp = worker.run(mainClass, args);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            release__(worker, false);
+            throw e;
+        }
+        release__(worker, ! worker.exited && worker.runs < maxRunsPerWorker);
+        return cp;
+    }
+
+    /**
+     * Put the worker back to the idle queue, or replace it with a new one.
+     * A failure to start the new JVM must not mask the result of the run;
+     * the missing worker is started again by the next take__().
+     */
+    private void release__(Worker worker, boolean reusable) {
+        if (reusable && ! closed) {
+            idle.add(worker);
+            return;
+        }
+        worker.close();
+        if (! closed) {
+            try {
+                // Process.start() returns soon; the new JVM boots in the background
+                idle.add(new Worker());
+            } catch (IOException e) {
+                missing.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Run the main method of a class asynchronously, using the default executor of Subprocess.
+     *
+     * @param mainClass the fully qualified name of a class with a main method
+     * @param args the arguments passed to the main method
+     * @return a CompletableFuture which completes with the CompletedProcess of the run
+     */
+    public CompletableFuture<CompletedProcess> runAsync(String mainClass, List<String> args) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return run(mainClass, args);
+            } catch (IOException | InterruptedException e) {
+                throw new CompletionException(e);
+            }
+        }, Subprocess.getDefaultExecutor());
+    }
+
+    private Worker take__() throws IOException, InterruptedException {
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("JvmWorkerPool has been closed");
+            }
+            int m = missing.get();
+            if (m > 0 && missing.compareAndSet(m, m - 1)) {
+                // a worker could not be replaced before; try again for this run
+                try {
+                    return new Worker();
+                } catch (IOException e) {
+                    missing.incrementAndGet();
+                    throw e;
+                }
+            }
+            Worker worker = idle.poll(100, TimeUnit.MILLISECONDS);
+            if (worker != null) {
+                return worker;
+            }
+        }
+    }
+
+    private List<String> workerCommand(int port, long token) throws IOException {
+        List<String> args = new ArrayList<>();
+        args.add(classpathString());
+        args.add(String.valueOf(port));
+        args.add(String.valueOf(token));
+        args.add(charset.name());
+        args.add(capturePolicy.isRaw() ? "raw" : "lines");
+        args.add(String.valueOf(capturePolicy.headLines()));
+        args.add(String.valueOf(capturePolicy.tailLines()));
+        args.add(String.valueOf(capturePolicy.maxLineLength()));
+        return new JavaLauncher(Collections.singletonList(new File(workerClasspath())))
+                .jvmOptions(jvmOptions)
+                .command(JvmWorker.class.getName(), args);
+    }
+
+    private String classpathString() {
+        return classpath.stream()
+                .map(File::getAbsolutePath)
+                .collect(Collectors.joining(File.pathSeparator));
+    }
+
+    /**
+     * @return the location (a jar or a directory) from which JvmWorker was loaded
+     */
+    private static String workerClasspath() throws IOException {
+        try {
+            return new File(JvmWorker.class.getProtectionDomain()
+                    .getCodeSource().getLocation().toURI()).getAbsolutePath();
+        } catch (URISyntaxException | NullPointerException e) {
+            throw new IOException("could not locate the classes of subprocessj", e);
+        }
+    }
+
+    /**
+     * Stop all the worker JVMs. Workers running a main method are stopped when the run finished.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            worker.close();
+        }
+    }
+
+    /**
+     * A worker JVM running com.kazurayam.subprocessj.JvmWorker.
+     * The worker connects back to a loopback port opened for it, and proves itself
+     * by a random token; the STDOUT and the STDERR of the worker are inherited.
+     */
+    private final class Worker {
+        private final ServerSocket server;
+        private final long token;
+        private final Process process;
+        private Socket socket = null;
+        private DataOutputStream out = null;
+        private DataInputStream in = null;
+        private boolean exited = false;
+        private int runs = 0;
+
+        Worker() throws IOException {
+            this.server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            this.token = new SecureRandom().nextLong();
+            try {
+                this.process = new ProcessBuilder(workerCommand(server.getLocalPort(), token))
+                        .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+            } catch (IOException e) {
+                server.close();
+                throw e;
+            }
+            process.getOutputStream().close();
+        }
+
+        CompletedProcess run(String mainClass, List<String> args)
+                throws IOException, InterruptedException {
+            runs += 1;
+            try {
+                if (socket == null) {
+                    accept__();
+                }
+                out.writeUTF(mainClass);
+                out.writeInt(args.size());
+                for (String arg : args) {
+                    out.writeUTF(arg);
+                }
+                out.flush();
+                if (in.readInt() != JvmWorker.RESPONSE) {
+                    throw new IOException("corrupt response from the worker JVM");
+                }
+                exited = in.readBoolean();
+                int returncode = in.readInt();
+                OutputCapture stdout = readCapture__();
+                OutputCapture stderr = readCapture__();
+                if (exited) {
+                    // the main method called System.exit()
+                    returncode = process.waitFor();
+                }
+                List<String> commandline = new ArrayList<>();
+                commandline.add(JavaLauncher.javaCommand());
+                commandline.add("-cp");
+                commandline.add(classpathString());
+                commandline.add(mainClass);
+                commandline.addAll(args);
+                CompletedProcess cp = new CompletedProcess(commandline, stdout, stderr);
+                cp.setReturnCode(returncode);
+                return cp;
+            } catch (IOException e) {
+                exited = true;
+                throw new IOException("the worker JVM failed: "
+                        + (process.isAlive() ? "alive" : "rc=" + process.exitValue()), e);
+            }
+        }
+
+        /**
+         * wait for the worker JVM to boot and connect; fail if it died before
+         */
+        private void accept__() throws IOException {
+            server.setSoTimeout(100);
+            try {
+                while (socket == null) {
+                    try {
+                        Socket s = server.accept();
+                        s.setTcpNoDelay(true);
+                        DataInputStream din = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                        if (din.readInt() != JvmWorker.READY || din.readLong() != token) {
+                            s.close();
+                            throw new IOException("unexpected handshake from the worker JVM");
+                        }
+                        socket = s;
+                        in = din;
+                        out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                    } catch (SocketTimeoutException e) {
+                        if (! process.isAlive()) {
+                            throw new IOException("the worker JVM exited before connecting");
+                        }
+                    }
+                }
+            } finally {
+                server.close();
+            }
+        }
+
+        private OutputCapture readCapture__() throws IOException {
+            if (capturePolicy.isRaw()) {
+                OutputCapture capture = OutputCapture.create(capturePolicy, charset);
+                byte[] bytes = readBytes__();
+                capture.write(bytes, 0, bytes.length);
+                capture.close();
+                return capture;
+            }
+            long lineCount = in.readLong();
+            long droppedLines = in.readLong();
+            long droppedChars = in.readLong();
+            int size = in.readInt();
+            if (size < 0) {
+                throw new IOException("corrupt response from the worker JVM");
+            }
+            List<String> lines = new ArrayList<>(Math.min(size, 1024));
+            for (int i = 0; i < size; i++) {
+                lines.add(new String(readBytes__(), StandardCharsets.UTF_8));
+            }
+            return new ReceivedCapture(lines, lineCount, droppedLines, droppedChars);
+        }
+
+        private byte[] readBytes__() throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("corrupt response from the worker JVM");
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        void close() {
+            try {
+                server.close();
+                if (socket != null) {
+                    socket.close();
+                }
+                if (! process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (IOException e) {
+                process.destroyForcibly();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The lines captured in a worker JVM according to the CapturePolicy
+     */
+    private static final class ReceivedCapture extends OutputCapture {
+        private final List<String> lines;
+        private final long lineCount;
+        private final long droppedLines;
+        private final long droppedChars;
+
+        ReceivedCapture(List<String> lines, long lineCount, long droppedLines, long droppedChars) {
+            this.lines = Collections.unmodifiableList(lines);
+            this.lineCount = lineCount;
+            this.droppedLines = droppedLines;
+            this.droppedChars = droppedChars;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {}
+
+        @Override
+        List<String> lines() {
+            return lines;
+        }
+
+        @Override
+        long lineCount() {
+            return lineCount;
+        }
+
+        @Override
+        long droppedLines() {
+            return droppedLines;
+        }
+
+        @Override
+        long droppedChars() {
+            return droppedChars;
+        }
+    }
+
+    /**
+     * Employing the "Builder" pattern of "Effective Java"
+     */
+    public static class Builder {
+        // required params
+        private final List<File> classpath;
+        // optional params
+        private final List<String> jvmOptions;
+        private int size;
+        private int maxRunsPerWorker;
+        private CapturePolicy capturePolicy;
+        private Charset charset;
+
+        /**
+         * @param classpath the jars and directories from which the main classes are loaded
+         */
+        public Builder(List<File> classpath) {
+            Objects.requireNonNull(classpath);
+            this.classpath = new ArrayList<>(classpath);
+            this.jvmOptions = new ArrayList<>();
+            this.size = 1;
+            this.maxRunsPerWorker = DEFAULT_MAX_RUNS_PER_WORKER;
+            this.capturePolicy = CapturePolicy.unlimited();
+            this.charset = Charset.defaultCharset();
+        }
+        public Builder size(int size) {
+            if (size < 1) {
+                throw new IllegalArgumentException("size must be positive: " + size);
+            }
+            this.size = size;
+            return this;
+        }
+        public Builder maxRunsPerWorker(int maxRunsPerWorker) {
+            if (maxRunsPerWorker < 1) {
+                throw new IllegalArgumentException(
+                        "maxRunsPerWorker must be positive: " + maxRunsPerWorker);
+            }
+            this.maxRunsPerWorker = maxRunsPerWorker;
+            return this;
+        }
+        /**
+         * @param jvmOptions E.g, Arrays.asList("-Xmx256m", "-Dfoo=bar")
+         */
+        public Builder jvmOptions(List<String> jvmOptions) {
+            Objects.requireNonNull(jvmOptions);
+            this.jvmOptions.addAll(jvmOptions);
+            return this;
+        }
+        public Builder capturePolicy(CapturePolicy capturePolicy) {
+            Objects.requireNonNull(capturePolicy);
+            this.capturePolicy = capturePolicy;
+            return this;
+        }
+        /**
+         * @param charset the Charset in which the main methods write into System.out and System.err
+         */
+        public Builder charset(Charset charset) {
+            Objects.requireNonNull(charset);
+            this.charset = charset;
+            return this;
+        }
+        public JvmWorkerPool build() throws IOException {
+            return new JvmWorkerPool(this);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.kazurayam.subprocessj;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Retains the lines of a stream according to a CapturePolicy.
+ * The head lines are kept in an AppendOnlyList, so that the lines retained
+ * so far can be read by other threads while the stream is being consumed;
+ * a bounded LineBuffer keeps the tail lines in a ring buffer in addition.
+ */
+final class LineBuffer {
+
+    private final CapturePolicy policy;
+    private final AppendOnlyList<String> head;
+    private final String[] tail;
+    private int tailNext;
+    private int tailSize;
+    private long droppedLines;
+    private long droppedChars;
+
+    LineBuffer(CapturePolicy policy) {
+        this.policy = policy;
+        this.head = new AppendOnlyList<>();
+        this.tail = new String[policy.isBounded() ? policy.tailLines() : 0];
+        this.tailNext = 0;
+        this.tailSize = 0;
+        this.droppedLines = 0;
+        this.droppedChars = 0;
+    }
+
+    void add(String line) {
+        if (! policy.isBounded() || head.size() < policy.headLines()) {
+            head.add(line);
+        } else if (tail.length == 0) {
+            drop(line);
+        } else {
+            synchronized (tail) {
+                if (tailSize == tail.length) {
+                    drop(tail[tailNext]);
+                } else {
+                    tailSize += 1;
+                }
+                tail[tailNext] = line;
+                tailNext = (tailNext + 1) % tail.length;
+            }
+        }
+    }
+
+    private void drop(String line) {
+        droppedLines += 1;
+        droppedChars += line.length();
+    }
+
+    /**
+     * @return the retained lines; the head lines followed by the tail lines.
+     * Can be called while lines are being added; the head lines are not copied.
+     */
+    List<String> lines() {
+        List<String> headLines = head.snapshot();
+        synchronized (tail) {
+            if (tailSize == 0) {
+                return headLines;
+            }
+            List<String> result = new ArrayList<>(headLines.size() + tailSize);
+            result.addAll(headLines);
+            int start = (tailSize == tail.length) ? tailNext : 0;
+            for (int i = 0; i < tailSize; i++) {
+                result.add(tail[(start + i) % tail.length]);
+            }
+            return result;
+        }
+    }
+
+    long droppedLines() {
+        return droppedLines;
+    }
+
+    long droppedChars() {
+        return droppedChars;
+    }
+}
@@ -0,0 +1,125 @@
+package com.kazurayam.subprocessj;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Decodes the stream into lines while the subprocess is running,
+ * retains them in a LineBuffer and/or hands them to a listener.
+ */
+final class LineCapture extends OutputCapture {
+
+    private final LineDecoder decoder;
+    private final LineBuffer buffer;
+    private final Consumer<String> listener;
+    private final LineFilter filter;
+    private long lineCount;
+    private long matchCount;
+    private volatile Runnable stopper;
+    private boolean stopped;
+
+    /**
+     * @param policy how many lines to retain, how long a line can be
+     * @param charset the charset of the stream
+     * @param listener will receive each line; may be null
+     * @param retain false not to retain any line
+     */
+    LineCapture(CapturePolicy policy, Charset charset, Consumer<String> listener, boolean retain) {
+        this(policy, charset, listener, retain, null);
+    }
+
+    /**
+     * @param filter the lines which do not match are neither retained nor handed to the listener;
+     *               may be null
+     */
+    LineCapture(CapturePolicy policy, Charset charset, Consumer<String> listener, boolean retain,
+                LineFilter filter) {
+        this.decoder = new LineDecoder(charset, policy.maxLineLength(), this::accept);
+        this.buffer = retain ? new LineBuffer(policy) : null;
+        this.listener = listener;
+        this.filter = filter;
+        this.lineCount = 0;
+        this.matchCount = 0;
+        this.stopper = null;
+        this.stopped = false;
+    }
+
+    /**
+     * @param stopper will be called once when the filter reached its maxMatches
+     */
+    void stopper(Runnable stopper) {
+        this.stopper = stopper;
+    }
+
+    /**
+     * add a line which has been decoded elsewhere
+     */
+    void add(String line) {
+        accept(line);
+    }
+
+    private void accept(String line) {
+        lineCount += 1;
+        if (filter != null) {
+            if (stopped || ! filter.test(line)) {
+                return;
+            }
+            matchCount += 1;
+            if (matchCount == filter.maxMatches()) {
+                stopped = true;
+                Runnable s = stopper;
+                if (s != null) {
+                    s.run();
+                }
+            }
+        }
+        if (buffer != null) {
+            buffer.add(line);
+        }
+        if (listener != null) {
+            listener.accept(line);
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        decoder.write(bytes, offset, length);
+    }
+
+    @Override
+    public void close() {
+        decoder.close();
+    }
+
+    @Override
+    List<String> lines() {
+        return (buffer != null) ? buffer.lines() : Collections.<String>emptyList();
+    }
+
+    @Override
+    boolean supportsSnapshot() {
+        return true;
+    }
+
+    @Override
+    long lineCount() {
+        return lineCount;
+    }
+
+    @Override
+    boolean stopped() {
+        return stopped;
+    }
+
+    @Override
+    long droppedLines() {
+        return (buffer != null) ? buffer.droppedLines() : 0;
+    }
+
+    @Override
+    long droppedChars() {
+        return (buffer != null) ? buffer.droppedChars() : 0;
+    }
+}
@@ -0,0 +1,198 @@
+package com.kazurayam.subprocessj;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Decodes chunks of bytes into chars and splits them into lines.
+ * A line is terminated by "\n", "\r" or "\r\n" as BufferedReader does.
+ * A line longer than maxLineLength chars is handed to the consumer in pieces,
+ * so that the memory used here is bounded however the input looks like.
+ *
+ * <p>Made by counting(), the decoder counts the bytes each line was decoded from,
+ * excluding the line terminator. Then it decodes one char at a time, except the ASCII bytes
+ * of UTF-8, US-ASCII and ISO-8859-1 which are taken as they are; it is slower.</p>
+ */
+final class LineDecoder implements StreamSink {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final CharsetDecoder decoder;
+    private final ObjIntConsumer<String> consumer;
+    private final boolean countBytes;
+    private final boolean asciiCompatible;
+    private final int maxLineLength;
+    private final ByteBuffer in;
+    private final CharBuffer out;
+    private final StringBuilder line;
+    private boolean lastWasCR;
+    private boolean lastWasSplit;
+    private int lineBytes;
+
+    /**
+     * @param charset the charset of the stream
+     * @param maxLineLength CapturePolicy.UNLIMITED or a positive number
+     * @param consumer will receive each line
+     */
+    LineDecoder(Charset charset, int maxLineLength, Consumer<String> consumer) {
+        this(charset, maxLineLength, (line, bytes) -> consumer.accept(line), false);
+    }
+
+    /**
+     * @param charset the charset of the stream
+     * @param maxLineLength CapturePolicy.UNLIMITED or a positive number
+     * @param consumer will receive each line with the number of bytes it was decoded from
+     */
+    static LineDecoder counting(Charset charset, int maxLineLength, ObjIntConsumer<String> consumer) {
+        return new LineDecoder(charset, maxLineLength, consumer, true);
+    }
+
+    private LineDecoder(Charset charset, int maxLineLength, ObjIntConsumer<String> consumer,
+                        boolean countBytes) {
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.consumer = consumer;
+        this.countBytes = countBytes;
+        // stateless decoders in which a byte below 0x80 is always the ASCII char
+        this.asciiCompatible = charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+        this.maxLineLength = (maxLineLength > 0) ? maxLineLength : Integer.MAX_VALUE;
+        this.in = ByteBuffer.allocate(BUFFER_SIZE);
+        this.out = CharBuffer.allocate(BUFFER_SIZE);
+        this.line = new StringBuilder();
+        this.lastWasCR = false;
+        this.lastWasSplit = false;
+        this.lineBytes = 0;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        int pos = offset;
+        int end = offset + length;
+        while (pos < end) {
+            int n = Math.min(in.remaining(), end - pos);
+            in.put(bytes, pos, n);
+            pos += n;
+            in.flip();
+            decode(false);
+            in.compact();
+        }
+    }
+
+    /**
+     * flush the last line which is not terminated by a newline
+     */
+    @Override
+    public void close() {
+        in.flip();
+        decode(true);
+        CoderResult cr;
+        do {
+            cr = decoder.flush(out);
+            drain();
+        } while (cr.isOverflow());
+        in.clear();
+        if (line.length() > 0) {
+            emit();
+        }
+    }
+
+    private void decode(boolean endOfInput) {
+        if (countBytes) {
+            decodeCounting(endOfInput);
+            return;
+        }
+        CoderResult cr;
+        do {
+            cr = decoder.decode(in, out, endOfInput);
+            drain();
+        } while (cr.isOverflow());
+    }
+
+    /**
+     * decode a char at a time, so that the bytes consumed for each char are known
+     */
+    private void decodeCounting(boolean endOfInput) {
+        while (in.hasRemaining()) {
+            if (asciiCompatible && in.get(in.position()) >= 0) {
+                accept((char) in.get(), 1);
+                continue;
+            }
+            int start = in.position();
+            out.limit(1);
+            CoderResult cr = decoder.decode(in, out, endOfInput);
+            if (cr.isOverflow() && out.position() == 0) {
+                // a surrogate pair
+                out.limit(2);
+                cr = decoder.decode(in, out, endOfInput);
+            }
+            int consumed = in.position() - start;
+            out.flip();
+            for (int i = 0; out.hasRemaining(); i++) {
+                accept(out.get(), (i == 0) ? consumed : 0);
+            }
+            out.clear();
+            if (cr.isUnderflow() && consumed == 0) {
+                // an incomplete sequence waits for more bytes
+                break;
+            }
+        }
+        if (endOfInput) {
+            // the decoder must see the end of input before it is flushed
+            CoderResult cr;
+            do {
+                cr = decoder.decode(in, out, true);
+                drain();
+            } while (cr.isOverflow());
+        }
+    }
+
+    private void drain() {
+        out.flip();
+        while (out.hasRemaining()) {
+            accept(out.get(), 0);
+        }
+        out.clear();
+    }
+
+    private void accept(char c, int bytes) {
+        if (c == '\n') {
+            if (! lastWasCR && ! lastWasSplit) {
+                emit();
+            }
+            lastWasCR = false;
+            lastWasSplit = false;
+        } else if (c == '\r') {
+            if (! lastWasSplit) {
+                emit();
+            }
+            lastWasCR = true;
+            lastWasSplit = false;
+        } else {
+            lastWasCR = false;
+            lastWasSplit = false;
+            line.append(c);
+            lineBytes += bytes;
+            if (line.length() >= maxLineLength) {
+                emit();
+                // the line terminator right after the split point is not a new line
+                lastWasSplit = true;
+            }
+        }
+    }
+
+    private void emit() {
+        consumer.accept(line.toString(), lineBytes);
+        line.setLength(0);
+        lineBytes = 0;
+    }
+}
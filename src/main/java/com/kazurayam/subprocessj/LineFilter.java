@@ -0,0 +1,120 @@
+package com.kazurayam.subprocessj;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * LineFilter selects the lines of the STDOUT to be retained in the CompletedProcess.
+ * The lines are tested as soon as they are read; the lines which do not match
+ * are dropped immediately and never retained.
+ *
+ * <PRE>
+ *     CompletedProcess cp = new Subprocess()
+ *             .stdoutFilter(LineFilter.containing(":8080 (LISTEN)").stopAfterFirstMatch())
+ *             .run(Arrays.asList("lsof", "-i", "-P"));
+ *     cp.stdout();         // the matched line only
+ *     cp.stoppedEarly();   // true if the subprocess was destroyed after the match
+ * </PRE>
+ *
+ * <p>With stopAfterFirstMatch() or stopAfter(n), the subprocess is destroyed as soon as
+ * the given number of lines matched; the returncode will be that of a terminated process.
+ * The patterns and the predicates should be compiled once and reused;
+ * a LineFilter is immutable if the predicate is.</p>
+ */
+public final class LineFilter {
+
+    public static final long UNLIMITED = -1;
+
+    private final Predicate<String> predicate;
+    private final long maxMatches;
+
+    private LineFilter(Predicate<String> predicate, long maxMatches) {
+        this.predicate = predicate;
+        this.maxMatches = maxMatches;
+    }
+
+    /**
+     * @param predicate returns true for the lines to be retained
+     * @return a LineFilter
+     */
+    public static LineFilter of(Predicate<String> predicate) {
+        Objects.requireNonNull(predicate);
+        return new LineFilter(predicate, UNLIMITED);
+    }
+
+    /**
+     * @param patterns precompiled patterns
+     * @return a LineFilter which retains the lines in which any of the patterns is found
+     */
+    public static LineFilter matching(Pattern... patterns) {
+        Objects.requireNonNull(patterns);
+        final Pattern[] copy = Arrays.copyOf(patterns, patterns.length);
+        for (Pattern p : copy) {
+            Objects.requireNonNull(p);
+        }
+        return of(line -> {
+            for (Pattern p : copy) {
+                if (p.matcher(line).find()) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * @param substrings literal strings
+     * @return a LineFilter which retains the lines which contain any of the substrings
+     */
+    public static LineFilter containing(String... substrings) {
+        Objects.requireNonNull(substrings);
+        final String[] copy = Arrays.copyOf(substrings, substrings.length);
+        for (String s : copy) {
+            Objects.requireNonNull(s);
+        }
+        return of(line -> {
+            for (String s : copy) {
+                if (line.contains(s)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * @return a new LineFilter which destroys the subprocess when a line matched
+     */
+    public LineFilter stopAfterFirstMatch() {
+        return stopAfter(1);
+    }
+
+    /**
+     * @param matches the number of matched lines after which the subprocess is destroyed
+     * @return a new LineFilter
+     */
+    public LineFilter stopAfter(long matches) {
+        if (matches <= 0) {
+            throw new IllegalArgumentException("matches must be positive: " + matches);
+        }
+        return new LineFilter(predicate, matches);
+    }
+
+    public boolean test(String line) {
+        return predicate.test(line);
+    }
+
+    /**
+     * @return the number of matched lines after which the subprocess is destroyed; UNLIMITED if never
+     */
+    public long maxMatches() {
+        return maxMatches;
+    }
+
+    @Override
+    public String toString() {
+        return (maxMatches == UNLIMITED) ? "LineFilter" : "LineFilter(stopAfter=" + maxMatches + ")";
+    }
+}
@@ -0,0 +1,75 @@
+package com.kazurayam.subprocessj;
+
+import java.util.Arrays;
+
+/**
+ * Records the start and the end offsets of the lines in a sequence of bytes.
+ * A line is terminated by "\n", "\r" or "\r\n". The bytes are given one by one
+ * by accept(), so that the caller can scan any storage (byte[], ByteBuffer)
+ * without copying.
+ */
+final class LineIndex {
+
+    private int[] index;        // pairs of (start, end) offsets of lines
+    private int count;
+    private int lineStart;
+    private boolean lastWasCR;
+
+    LineIndex() {
+        this.index = new int[64];
+        this.count = 0;
+        this.lineStart = 0;
+        this.lastWasCR = false;
+    }
+
+    /**
+     * @param b a byte
+     * @param pos the offset of the byte
+     */
+    void accept(byte b, int pos) {
+        if (b == '\n') {
+            if (! lastWasCR) {
+                add(lineStart, pos);
+            }
+            lineStart = pos + 1;
+            lastWasCR = false;
+        } else if (b == '\r') {
+            add(lineStart, pos);
+            lineStart = pos + 1;
+            lastWasCR = true;
+        } else {
+            lastWasCR = false;
+        }
+    }
+
+    /**
+     * @param size the total number of bytes; the last line without a terminator is added
+     */
+    void finish(int size) {
+        if (lineStart < size) {
+            add(lineStart, size);
+            lineStart = size;
+        }
+    }
+
+    private void add(int start, int end) {
+        if (count * 2 + 2 > index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[count * 2] = start;
+        index[count * 2 + 1] = end;
+        count += 1;
+    }
+
+    int count() {
+        return count;
+    }
+
+    int start(int i) {
+        return index[i * 2];
+    }
+
+    int end(int i) {
+        return index[i * 2 + 1];
+    }
+}
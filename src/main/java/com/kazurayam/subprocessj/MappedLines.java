@@ -0,0 +1,158 @@
+package com.kazurayam.subprocessj;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * A read-only List&lt;String&gt; view of a text file, backed by a memory-mapped buffer.
+ * The file is not read into the Java heap; the OS pages it in on demand.
+ *
+ * <p>Iterating the lines (iterator(), stream(), for-each loop) scans the file
+ * sequentially, decoding one line at a time. Random access (get(), size())
+ * builds an index of the line offsets at the first call, which costs 8 bytes per line.</p>
+ *
+ * <p>A line is terminated by "\n", "\r" or "\r\n", therefore the charset should be
+ * ASCII-compatible (UTF-8, ISO-8859-1, Shift_JIS, ...). The file must be smaller than 2GB.</p>
+ *
+ * <p>There is no close(): Java offers no portable way to unmap a MappedByteBuffer.
+ * The mapping stays valid, and keeps the file open at the OS level, until this object
+ * is garbage-collected. On Windows the file cannot be deleted or overwritten meanwhile.</p>
+ */
+public final class MappedLines extends AbstractList<String> implements RandomAccess {
+
+    private final Path path;
+    private final Charset charset;
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private LineIndex index;
+
+    private MappedLines(Path path, Charset charset, MappedByteBuffer buffer) {
+        this.path = path;
+        this.charset = charset;
+        this.buffer = buffer;
+        this.size = buffer.limit();
+        this.index = null;
+    }
+
+    /**
+     * @param path a text file
+     * @param charset the charset of the file
+     * @return a MappedLines of the file
+     * @throws IOException if failed to map the file, or the file is 2GB or larger
+     */
+    public static MappedLines open(Path path, Charset charset) throws IOException {
+        Objects.requireNonNull(path);
+        Objects.requireNonNull(charset);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length >= Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to map: " + length + " bytes");
+            }
+            return new MappedLines(path, charset, channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+        }
+    }
+
+    /**
+     * @return the mapped file
+     */
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * @return a read-only ByteBuffer of the whole file content
+     */
+    public ByteBuffer bytes() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private synchronized LineIndex index() {
+        if (index == null) {
+            LineIndex li = new LineIndex();
+            for (int i = 0; i < size; i++) {
+                li.accept(buffer.get(i), i);
+            }
+            li.finish(size);
+            index = li;
+        }
+        return index;
+    }
+
+    @Override
+    public String get(int i) {
+        LineIndex li = index();
+        if (i < 0 || i >= li.count()) {
+            throw new IndexOutOfBoundsException("index: " + i + ", size: " + li.count());
+        }
+        return decode(li.start(i), li.end(i));
+    }
+
+    @Override
+    public int size() {
+        return index().count();
+    }
+
+    private String decode(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(start);
+        dup.get(bytes);
+        return new String(bytes, charset);
+    }
+
+    /**
+     * @return an Iterator that scans the file sequentially without building the index
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int pos = 0;
+            @Override
+            public boolean hasNext() {
+                return pos < size;
+            }
+            @Override
+            public String next() {
+                if (pos >= size) {
+                    throw new NoSuchElementException();
+                }
+                int start = pos;
+                int end = start;
+                while (end < size) {
+                    byte b = buffer.get(end);
+                    if (b == '\n' || b == '\r') {
+                        break;
+                    }
+                    end += 1;
+                }
+                pos = end;
+                if (pos < size) {
+                    byte terminator = buffer.get(pos);
+                    pos += 1;
+                    if (terminator == '\r' && pos < size && buffer.get(pos) == '\n') {
+                        pos += 1;
+                    }
+                }
+                return decode(start, end);
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<String> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+}
@@ -0,0 +1,79 @@
+package com.kazurayam.subprocessj;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Captures the STDOUT or the STDERR of a subprocess, and presents it
+ * to the CompletedProcess.
+ */
+abstract class OutputCapture implements StreamSink {
+
+    /**
+     * A timeline policy is not applicable to a single stream;
+     * all lines are retained in that case.
+     */
+    static OutputCapture create(CapturePolicy policy, Charset charset) {
+        if (policy.isRaw()) {
+            return new ByteCapture(charset);
+        } else {
+            return new LineCapture(policy, charset, null, true);
+        }
+    }
+
+    /**
+     * @return the captures of the STDOUT and the STDERR; they share a Timeline
+     * if the policy is timeline
+     */
+    static OutputCapture[] createPair(CapturePolicy policy, Charset charset) {
+        if (policy.isTimeline()) {
+            Timeline timeline = new Timeline(policy);
+            return new OutputCapture[] {
+                    new TimelineCapture(timeline, OutputEvent.Stream.STDOUT, policy, charset),
+                    new TimelineCapture(timeline, OutputEvent.Stream.STDERR, policy, charset)
+            };
+        } else {
+            return new OutputCapture[] { create(policy, charset), create(policy, charset) };
+        }
+    }
+
+    /**
+     * @return the retained lines
+     */
+    abstract List<String> lines();
+
+    /**
+     * @return true if lines() can be called while the stream is being consumed
+     */
+    boolean supportsSnapshot() {
+        return false;
+    }
+
+    /**
+     * @return the number of lines read, including the lines not retained
+     */
+    abstract long lineCount();
+
+    /**
+     * @return true if a LineFilter destroyed the subprocess after enough lines matched
+     */
+    boolean stopped() {
+        return false;
+    }
+
+    long droppedLines() {
+        return 0;
+    }
+
+    long droppedChars() {
+        return 0;
+    }
+
+    byte[] bytes() {
+        throw new IllegalStateException("raw bytes are not captured. Use CapturePolicy.raw()");
+    }
+
+    List<OutputEvent> events() {
+        throw new IllegalStateException("the timeline is not captured. Use CapturePolicy.timeline()");
+    }
+}
@@ -0,0 +1,88 @@
+package com.kazurayam.subprocessj;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * A line read out of the STDOUT or the STDERR of a subprocess, recorded by
+ * CapturePolicy.timeline().
+ *
+ * <PRE>
+ *     CompletedProcess cp = new Subprocess()
+ *             .capturePolicy(CapturePolicy.timeline())
+ *             .run(Arrays.asList("some", "slow", "tool"));
+ *     for (OutputEvent e : cp.timeline()) {
+ *         System.out.printf("%8.3fms %s %s%n", e.offsetNanos() / 1e6, e.stream(), e.line());
+ *     }
+ * </PRE>
+ *
+ * <p>The offset is measured by System.nanoTime() when the line was decoded,
+ * from the time just before the subprocess was started. The lines that came in
+ * one read of the pipe share nearly the same offset. The byte size is the number
+ * of bytes read out of the pipe for the line, excluding the line terminator.</p>
+ */
+public final class OutputEvent {
+
+    public enum Stream { STDOUT, STDERR }
+
+    private final Stream stream;
+    private final long offsetNanos;
+    private final int byteSize;
+    private final String line;
+
+    OutputEvent(Stream stream, long offsetNanos, int byteSize, String line) {
+        this.stream = Objects.requireNonNull(stream);
+        this.offsetNanos = offsetNanos;
+        this.byteSize = byteSize;
+        this.line = Objects.requireNonNull(line);
+    }
+
+    public Stream stream() {
+        return stream;
+    }
+
+    /**
+     * @return nanoseconds elapsed from the start of the subprocess
+     */
+    public long offsetNanos() {
+        return offsetNanos;
+    }
+
+    public Duration offset() {
+        return Duration.ofNanos(offsetNanos);
+    }
+
+    public int byteSize() {
+        return byteSize;
+    }
+
+    public String line() {
+        return line;
+    }
+
+    /**
+     * @param events a timeline
+     * @param stream STDOUT or STDERR
+     * @return the events of the stream, in order
+     */
+    public static List<OutputEvent> filter(List<OutputEvent> events, Stream stream) {
+        return events.stream().filter(e -> e.stream == stream).collect(Collectors.toList());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<event stream=\"");
+        sb.append(stream);
+        sb.append("\" offset=\"");
+        sb.append(offsetNanos);
+        sb.append("\" bytes=\"");
+        sb.append(byteSize);
+        sb.append("\">");
+        sb.append(line);
+        sb.append("</event>");
+        return sb.toString();
+    }
+}
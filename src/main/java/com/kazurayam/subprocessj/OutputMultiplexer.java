@@ -0,0 +1,304 @@
+package com.kazurayam.subprocessj;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * OutputMultiplexer consumes the STDOUT and the STDERR of many subprocesses
+ * with a small fixed number of threads, instead of 2 blocked threads per subprocess.
+ *
+ * <p>Each worker thread polls the streams of the subprocesses assigned to it by
+ * InputStream#available(), reads only the bytes available without blocking,
+ * and hands them to the consumers. When a whole round found no bytes,
+ * the worker sleeps with an adaptive backoff (from 0.2 ms up to 20 ms),
+ * which is reset as soon as any byte arrives.
+ * The exit of a subprocess is detected by the shared ExitReaper, which wakes up
+ * the worker, or by the worker itself checking Process#isAlive() in each round,
+ * whichever comes first; when the bytes left in the pipes are read, the future returned by
+ * register() is completed with the return code. The worker never blocks on reading
+ * until the end of a stream, as a grandchild process (e.g, "sh -c 'server &amp;'")
+ * may hold the pipe open; the output it writes after the exit of the subprocess is
+ * read for 500 ms at most, then the streams are closed.</p>
+ *
+ * <PRE>
+ *     OutputMultiplexer multiplexer = new OutputMultiplexer(2);
+ *     Subprocess subprocess = new Subprocess().multiplexer(multiplexer);
+ *     CompletedProcess cp = subprocess.run(Arrays.asList("ls", "-la"));
+ *     ...
+ *     multiplexer.close();
+ * </PRE>
+ *
+ * <p>The consumers are called by the worker threads, so they should be quick.
+ * A slow consumer delays the other subprocesses served by the same worker.</p>
+ */
+public final class OutputMultiplexer implements Closeable {
+
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long POST_EXIT_GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final AtomicInteger instanceCount = new AtomicInteger(0);
+
+    private final Worker[] workers;
+    private final AtomicInteger next = new AtomicInteger(0);
+    private volatile boolean closed = false;
+
+    /**
+     * create an OutputMultiplexer with 1 worker thread
+     */
+    public OutputMultiplexer() {
+        this(1);
+    }
+
+    /**
+     * @param threads the number of worker threads
+     */
+    public OutputMultiplexer(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        int id = instanceCount.incrementAndGet();
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker();
+            Thread t = new Thread(workers[i],
+                    String.format("subprocessj-multiplexer-%d-%d", id, i + 1));
+            t.setDaemon(true);
+            workers[i].thread = t;
+            t.start();
+        }
+    }
+
+    /**
+     * Start consuming the STDOUT and the STDERR of the process.
+     *
+     * @param process a Process just started
+     * @param charset the charset of the streams
+     * @param stdoutConsumer will receive each line of the STDOUT
+     * @param stderrConsumer will receive each line of the STDERR
+     * @return a future completed with the return code of the process
+     * after both streams are consumed
+     */
+    public CompletableFuture<Integer> register(Process process, Charset charset,
+                                               Consumer<String> stdoutConsumer,
+                                               Consumer<String> stderrConsumer) {
+        Objects.requireNonNull(charset);
+        Objects.requireNonNull(stdoutConsumer);
+        Objects.requireNonNull(stderrConsumer);
+        return register(process,
+                new LineDecoder(charset, CapturePolicy.UNLIMITED, stdoutConsumer),
+                new LineDecoder(charset, CapturePolicy.UNLIMITED, stderrConsumer));
+    }
+
+    CompletableFuture<Integer> register(Process process, StreamSink stdoutSink, StreamSink stderrSink) {
+        Objects.requireNonNull(process);
+        if (closed) {
+            throw new IllegalStateException("OutputMultiplexer is closed");
+        }
+        Entry entry = new Entry(process, stdoutSink, stderrSink);
+        Worker worker = workers[Math.floorMod(next.getAndIncrement(), workers.length)];
+        worker.incoming.add(entry);
+        if (closed) {
+            // close() raced with us; the worker may have drained its queue already
+            worker.incoming.remove(entry);
+            entry.abandon(new IllegalStateException("OutputMultiplexer is closed"));
+            return entry.future;
+        }
+        LockSupport.unpark(worker.thread);
+        entry.exit.thenRun(() -> LockSupport.unpark(worker.thread));
+        return entry.future;
+    }
+
+    /**
+     * Stop the worker threads. The futures of the processes not yet completed
+     * are completed exceptionally.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    private static final class Entry {
+        final Process process;
+        final Channel stdout;
+        final Channel stderr;
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        final CompletableFuture<Integer> exit;
+        long exitSeenAt = 0;
+        Entry(Process process, StreamSink stdoutSink, StreamSink stderrSink) {
+            this.process = process;
+            this.exit = ExitReaper.onExit(process);
+            this.stdout = new Channel(process.getInputStream(), stdoutSink);
+            this.stderr = new Channel(process.getErrorStream(), stderrSink);
+        }
+
+        /**
+         * @return true if the LineFilter of the STDOUT stopped the process
+         */
+        boolean stopped() {
+            return (stdout.sink instanceof OutputCapture) && ((OutputCapture)stdout.sink).stopped();
+        }
+
+        /**
+         * close the sinks and the pipes, then complete the future with the reason
+         */
+        void abandon(Throwable reason) {
+            try {
+                stdout.finish();
+                stderr.finish();
+            } catch (RuntimeException e) {
+                reason.addSuppressed(e);
+            }
+            future.completeExceptionally(reason);
+        }
+    }
+
+    private static final class Channel {
+        final InputStream in;
+        final StreamSink sink;
+        boolean eof = false;
+        Channel(InputStream in, StreamSink sink) {
+            this.in = in;
+            this.sink = sink;
+        }
+
+        /**
+         * @return the number of bytes read
+         */
+        int poll(byte[] buffer) throws IOException {
+            int total = 0;
+            int available;
+            while (! eof && (available = in.available()) > 0) {
+                int n = in.read(buffer, 0, Math.min(available, buffer.length));
+                if (n < 0) {
+                    finish();
+                } else {
+                    sink.write(buffer, 0, n);
+                    total += n;
+                }
+            }
+            return total;
+        }
+
+        void finish() {
+            if (! eof) {
+                eof = true;
+                sink.close();
+                try {
+                    in.close();
+                } catch (IOException ignore) {
+                    // the pipe is abandoned anyway
+                }
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+        final Queue<Entry> incoming = new ConcurrentLinkedQueue<>();
+        final List<Entry> entries = new ArrayList<>();
+        final byte[] buffer = new byte[8192];
+        Thread thread;
+
+        @Override
+        public void run() {
+            long backoff = MIN_BACKOFF_NANOS;
+            while (! closed) {
+                Entry e;
+                while ((e = incoming.poll()) != null) {
+                    entries.add(e);
+                }
+                boolean progress = false;
+                Iterator<Entry> it = entries.iterator();
+                while (it.hasNext()) {
+                    Entry entry = it.next();
+                    try {
+                        if (service(entry)) {
+                            progress = true;
+                        }
+                        if (entry.future.isDone()) {
+                            it.remove();
+                        }
+                    } catch (IOException | RuntimeException ex) {
+                        // the streams are not read any more; do not leave the process blocked on them
+                        entry.process.destroy();
+                        entry.abandon(ex);
+                        it.remove();
+                    }
+                }
+                if (progress) {
+                    backoff = MIN_BACKOFF_NANOS;
+                } else {
+                    LockSupport.parkNanos(this, backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+                }
+            }
+            IllegalStateException ex = new IllegalStateException("OutputMultiplexer is closed");
+            for (Entry entry : entries) {
+                entry.abandon(ex);
+            }
+            Entry entry;
+            while ((entry = incoming.poll()) != null) {
+                entry.abandon(ex);
+            }
+        }
+
+        /**
+         * @return true if any byte was read
+         */
+        private boolean service(Entry entry) throws IOException {
+            if (entry.future.isCancelled()) {
+                entry.process.destroy();
+                entry.stdout.finish();
+                entry.stderr.finish();
+                return false;
+            }
+            int n = poll(entry);
+            // isAlive() is cheap, and notices the exit before the ExitReaper's next round
+            if (entry.exit.isDone() || ! entry.process.isAlive()) {
+                // whatever the process wrote is in the pipes now. Do not read until the end
+                // of the streams, which blocks if a grandchild process inherited the pipes
+                long now = System.nanoTime();
+                if (entry.exitSeenAt == 0) {
+                    entry.exitSeenAt = now;
+                    n += poll(entry);
+                }
+                if (n == 0 || now - entry.exitSeenAt > POST_EXIT_GRACE_NANOS) {
+                    entry.stdout.finish();
+                    entry.stderr.finish();
+                    entry.future.complete(entry.process.exitValue());
+                }
+                return true;
+            }
+            return n > 0;
+        }
+
+        private int poll(Entry entry) throws IOException {
+            try {
+                return entry.stdout.poll(buffer) + entry.stderr.poll(buffer);
+            } catch (IOException e) {
+                if (! entry.stopped()) {
+                    throw e;
+                }
+                // on Java 8, Process#destroy() closed the streams after a LineFilter stopped the process
+                entry.stdout.finish();
+                entry.stderr.finish();
+                return 0;
+            }
+        }
+    }
+}
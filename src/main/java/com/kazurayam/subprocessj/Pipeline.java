@@ -0,0 +1,272 @@
+package com.kazurayam.subprocessj;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+import com.kazurayam.subprocessj.Subprocess.StreamGobbler;
+
+/**
+ * Pipeline runs multiple commands connecting the STDOUT of each command
+ * to the STDIN of the next command, as "cmd1 | cmd2 | cmd3" in a shell, but without a shell.
+ *
+ * <PRE>
+ *     PipelineResult pr = new Pipeline()
+ *             .add(Arrays.asList("cat", "access.log"))
+ *             .add(Arrays.asList("grep", "GET"))
+ *             .add(Arrays.asList("wc", "-l"))
+ *             .run();
+ *     pr.returncodes();   // e.g, [0, 0, 0]
+ *     pr.stdout();        // the STDOUT of the last command
+ *     pr.stderr(1);       // the STDERR of "grep"
+ * </PRE>
+ *
+ * <p>On Java 9 and later, the commands are connected by OS pipes using
+ * ProcessBuilder.startPipeline(), so the data between the commands never enters the JVM.
+ * On Java 8, the bytes are copied by a pump thread with a pooled buffer;
+ * they are not decoded into Strings.</p>
+ */
+public class Pipeline {
+
+    private File cwd = new File(".");
+
+    private final Map<String, String> environment;
+
+    private final List<List<String>> commands;
+
+    private CapturePolicy capturePolicy = CapturePolicy.unlimited();
+
+    private Charset charset = Charset.defaultCharset();
+
+    private StdinSource stdin = null;
+
+    public Pipeline() {
+        this.environment = new ProcessBuilder().environment();
+        this.commands = new ArrayList<>();
+    }
+
+    /**
+     * @return the environment variables for all the commands; modifiable
+     */
+    public Map<String, String> environment() {
+        return environment;
+    }
+
+    /**
+     * Change the current working directory for all the commands.
+     * @param currentWorkingDirectory a File object, which is a directory
+     * @return the Pipeline object. for functional call chaining.
+     */
+    public Pipeline cwd(File currentWorkingDirectory) {
+        Objects.requireNonNull(currentWorkingDirectory);
+        if (! currentWorkingDirectory.isDirectory()) {
+            throw new IllegalArgumentException(currentWorkingDirectory.getAbsolutePath() +
+                    " is not a directory");
+        }
+        this.cwd = currentWorkingDirectory;
+        return this;
+    }
+
+    /**
+     * Append a command to the end of the pipeline.
+     * @param command E.g Array.asList("grep", "foo")
+     * @return the Pipeline object. for functional call chaining.
+     */
+    public Pipeline add(List<String> command) {
+        Objects.requireNonNull(command);
+        if (command.isEmpty()) {
+            throw new IllegalArgumentException("command must not be empty");
+        }
+        this.commands.add(new ArrayList<>(command));
+        return this;
+    }
+
+    /**
+     * @param capturePolicy applied to the STDOUT of the last command and the STDERR of all commands
+     * @return the Pipeline object. for functional call chaining.
+     */
+    public Pipeline capturePolicy(CapturePolicy capturePolicy) {
+        Objects.requireNonNull(capturePolicy);
+        this.capturePolicy = capturePolicy;
+        return this;
+    }
+
+    /**
+     * @param charset to decode the STDOUT of the last command and the STDERR of all commands
+     * @return the Pipeline object. for functional call chaining.
+     */
+    public Pipeline charset(Charset charset) {
+        Objects.requireNonNull(charset);
+        this.charset = charset;
+        return this;
+    }
+
+    /**
+     * @param stdin the data to feed into the STDIN of the first command
+     * @return the Pipeline object. for functional call chaining.
+     */
+    public Pipeline stdin(StdinSource stdin) {
+        Objects.requireNonNull(stdin);
+        this.stdin = stdin;
+        return this;
+    }
+
+    /**
+     * Run all the commands, wait for all of them to finish.
+     * @return a PipelineResult which contains a CompletedProcess per command
+     * @throws IOException when failed to start any of the commands
+     * @throws InterruptedException when the calling thread was interrupted while waiting
+     */
+    public PipelineResult run() throws IOException, InterruptedException {
+        if (commands.isEmpty()) {
+            throw new IllegalStateException("no command is added to the Pipeline");
+        }
+        List<ProcessBuilder> builders = new ArrayList<>();
+        List<CompletedProcess> stages = new ArrayList<>();
+        for (List<String> command : commands) {
+            ProcessBuilder pb = new ProcessBuilder(command).directory(cwd);
+            pb.environment().clear();
+            pb.environment().putAll(environment);
+            builders.add(pb);
+            OutputCapture[] captures = OutputCapture.createPair(capturePolicy, charset);
+            stages.add(new CompletedProcess(command, captures[0], captures[1]));
+        }
+        if (stdin != null) {
+            stdin.acquire();
+        }
+        builders.get(0).redirectInput(
+                (stdin != null) ? stdin.redirect() : ProcessBuilder.Redirect.PIPE);
+
+        ExecutorService es = Subprocess.getDefaultExecutor();
+        List<Process> processes;
+        try {
+            processes = PipelineStarter.start(builders, es);
+        } catch (IOException | RuntimeException e) {
+            if (stdin != null) {
+                stdin.release();
+            }
+            throw e;
+        }
+
+        Future<?> stdinFuture = null;
+        List<Future<String>> stderrFutures = new ArrayList<>();
+        try {
+            if (stdin != null && stdin.needsWriter()) {
+                final StdinSource source = stdin;
+                final Process first = processes.get(0);
+                stdinFuture = es.submit(() -> {
+                    source.writeTo(first.getOutputStream());
+                    return null;
+                });
+            }
+
+            for (int i = 0; i < processes.size(); i++) {
+                stderrFutures.add(es.submit(
+                        new StreamGobbler(processes.get(i).getErrorStream(), stages.get(i).stderrCapture())));
+            }
+
+            // consume the STDOUT of the last command by the calling thread
+            int last = processes.size() - 1;
+            new StreamGobbler(processes.get(last).getInputStream(), stages.get(last).stdoutCapture()).gobble();
+
+            for (int i = 0; i < processes.size(); i++) {
+                stages.get(i).setReturnCode(processes.get(i).waitFor());
+                Subprocess.await(stderrFutures.get(i));
+            }
+            if (stdinFuture != null) {
+                Subprocess.await(stdinFuture);
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // do not leave the commands running with their pipes open
+            for (Process process : processes) {
+                process.destroyForcibly();
+            }
+            for (Future<String> f : stderrFutures) {
+                f.cancel(true);
+            }
+            if (stdinFuture != null) {
+                stdinFuture.cancel(true);
+            }
+            throw e;
+        }
+        return new PipelineResult(stages);
+    }
+
+    /**
+     * A Data Transfer Object that contains the CompletedProcess of each command
+     * in a Pipeline. Only the last one has the STDOUT captured.
+     */
+    public static final class PipelineResult {
+
+        private final List<CompletedProcess> stages;
+
+        PipelineResult(List<CompletedProcess> stages) {
+            this.stages = Collections.unmodifiableList(stages);
+        }
+
+        /**
+         * @return the CompletedProcess of each command, in the order of the Pipeline
+         */
+        public List<CompletedProcess> stages() {
+            return stages;
+        }
+
+        /**
+         * @return the return code of the last command, as a shell does
+         */
+        public int returncode() {
+            return stages.get(stages.size() - 1).returncode();
+        }
+
+        /**
+         * @return the return codes of all commands, as PIPESTATUS of bash
+         */
+        public List<Integer> returncodes() {
+            List<Integer> result = new ArrayList<>();
+            for (CompletedProcess cp : stages) {
+                result.add(cp.returncode());
+            }
+            return result;
+        }
+
+        /**
+         * @return captured STDOUT from the last command
+         */
+        public List<String> stdout() {
+            return stages.get(stages.size() - 1).stdout();
+        }
+
+        /**
+         * @param index 0 for the first command
+         * @return captured STDERR from the command
+         */
+        public List<String> stderr(int index) {
+            return stages.get(index).stderr();
+        }
+
+        @Override
+        public String toString() {
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(new BufferedWriter(sw));
+            pw.println(String.format("<pipeline-result rc=\"%d\">", this.returncode()));
+            for (CompletedProcess cp : stages) {
+                pw.print(cp.toString());
+            }
+            pw.println("</pipeline-result>");
+            pw.flush();
+            pw.close();
+            return sw.toString();
+        }
+    }
+}
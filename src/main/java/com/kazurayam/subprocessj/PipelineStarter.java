@@ -0,0 +1,92 @@
+package com.kazurayam.subprocessj;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Starts the processes of a Pipeline, connecting the STDOUT of each stage
+ * to the STDIN of the next stage.
+ *
+ * Java 8 has no way to connect 2 processes by an OS pipe, so a pump task
+ * on the executor copies the bytes between each pair of stages, using
+ * a buffer borrowed from a shared pool. No byte is decoded on the way.
+ *
+ * On Java 9 and later, this class is overridden by the variant in
+ * src/main/java9, which uses ProcessBuilder.startPipeline().
+ */
+final class PipelineStarter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final BlockingQueue<byte[]> bufferPool = new ArrayBlockingQueue<>(16);
+
+    private PipelineStarter() {}
+
+    /**
+     * @param builders ProcessBuilders of the stages; the STDIN of the first stage
+     *                 and the STDOUT of the last stage are left as configured
+     * @param executor runs the pumps between stages
+     * @return the started processes
+     */
+    static List<Process> start(List<ProcessBuilder> builders, ExecutorService executor)
+            throws IOException {
+        List<Process> processes = new ArrayList<>();
+        try {
+            for (int i = 0; i < builders.size(); i++) {
+                ProcessBuilder pb = builders.get(i);
+                if (i > 0) {
+                    pb.redirectInput(ProcessBuilder.Redirect.PIPE);
+                }
+                if (i < builders.size() - 1) {
+                    pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
+                }
+                processes.add(pb.start());
+            }
+        } catch (IOException e) {
+            for (Process p : processes) {
+                p.destroyForcibly();
+            }
+            throw e;
+        }
+        for (int i = 0; i < processes.size() - 1; i++) {
+            final InputStream from = processes.get(i).getInputStream();
+            final OutputStream to = processes.get(i + 1).getOutputStream();
+            executor.execute(() -> pump(from, to));
+        }
+        return processes;
+    }
+
+    private static void pump(InputStream from, OutputStream to) {
+        byte[] buffer = bufferPool.poll();
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        try {
+            int n;
+            while ((n = from.read(buffer)) != -1) {
+                to.write(buffer, 0, n);
+                to.flush();
+            }
+        } catch (IOException e) {
+            // the next stage has exited; the previous stage will get SIGPIPE
+            // as it would in a shell pipeline
+        } finally {
+            try {
+                to.close();
+            } catch (IOException ignore) {
+                // already broken
+            }
+            try {
+                from.close();
+            } catch (IOException ignore) {
+                // already closed
+            }
+            bufferPool.offer(buffer);
+        }
+    }
+}
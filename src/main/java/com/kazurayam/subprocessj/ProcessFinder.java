@@ -10,7 +10,6 @@ import java.util.List;
 import java.lang.management.ManagementFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
 
@@ -51,6 +50,28 @@ public class ProcessFinder {
         return pfr;
     }
 
+    /**
+     * Run the command of the pfr. Each line of the STDOUT is tested by the filter
+     * as soon as it is read; all lines go into pfr.stdout(), the matching ones into filtered.
+     */
+    private static CompletedProcess run__(ProcessFindingResult pfr, LineFilter filter,
+                                          List<String> filtered)
+            throws IOException, InterruptedException {
+        List<String> stdout = new ArrayList<>();
+        List<String> stderr = new ArrayList<>();
+        CompletedProcess cp = new Subprocess().run(pfr.command(),
+                line -> {
+                    stdout.add(line);
+                    if (filter.test(line)) {
+                        filtered.add(line);
+                    }
+                },
+                stderr::add);
+        pfr.addAllStdout(stdout);
+        pfr.addAllStderr(stderr);
+        return cp;
+    }
+
     private static ProcessFindingResult findingPidByListeningPort__(int port)
             throws IOException, InterruptedException
     {
@@ -59,24 +80,16 @@ public class ProcessFinder {
             // execute "lsof -i:pppp -P" command to find the list of processes
             // which are working of the port
             pfr.addAllCommand(Arrays.asList("lsof", "-i:" + String.valueOf(port), "-P"));
-            Subprocess sp = new Subprocess();
-            CompletedProcess cp = sp.run(pfr.command());
-            pfr.addAllStdout(cp.stdout());
-            pfr.addAllStderr(cp.stderr());
-            if (cp.returncode() == 0) {
-                List<String> filtered =
-                        /*
+            LineFilter listening = LineFilter.containing(String.format(":%d (LISTEN)", port));
+            /*
 $ lsof -i:80 -P
 COMMAND     PID           USER   FD   TYPE             DEVICE SIZE/OFF NODE NAME
 com.docke   910 kazuakiurayama   91u  IPv6 0xbff554d0cffbd48b      0t0  TCP *:80 (LISTEN)
 katalon   12497 kazuakiurayama  147u  IPv6 0xbff554d0cffbab4b      0t0  TCP 192.168.0.8:58990->server-18-65-100-111.kix50.pfr.cloudfront.net:80 (ESTABLISHED)
              */
-                        cp.stdout().stream()
-                                .filter(l ->
-                                        l.contains(
-                                                String.format(":%d (LISTEN)", port)
-                                        ))
-                                .collect(Collectors.toList());
+            List<String> filtered = new ArrayList<>();
+            CompletedProcess cp = run__(pfr, listening, filtered);
+            if (cp.returncode() == 0) {
                 pfr.addAllFilteredStdout(filtered);
                 if (pfr.filteredStdout().size() == 1) {
                     String[] tokens = filtered.get(0).split("\\s+");
@@ -102,28 +115,21 @@ katalon   12497 kazuakiurayama  147u  IPv6 0xbff554d0cffbab4b      0t0  TCP 192.
             }
         } else if (pfr.ostype() == OSType.WINDOWS) {
             pfr.addAllCommand(Arrays.asList("netstat", "-ano"));
-            Subprocess sp = new Subprocess();
-            CompletedProcess cp = sp.run(pfr.command());
-            pfr.addAllStdout(cp.stdout());
-            pfr.addAllStderr(cp.stderr());
-            if (cp.returncode() == 0) {
-                List<String> filtered =
+            // the regex is compiled once, not per line
+            Pattern pattern = Pattern.compile(makeRegexForFilteringWindowsNetstatOutput(port));
+            LineFilter listening = LineFilter.of(l -> l.contains("LISTENING") && pattern.matcher(l).matches());
             /*
             $ netstat -ano | find "LISTEN" | find "80"
   TCP         0.0.0.0:13688          0.0.0.0:0              LISTENING       4080
   TCP         [::]:13688             [::]:0                 LISTENING       4080
              */
-                        // protocol   local-address  exteria-address  state  process-id
-                        cp.stdout().stream()
-                                .filter(l ->
-                                        l.contains("LISTENING") &&
-                                        l.matches(makeRegexForFilteringWindowsNetstatOutput(port))
-                                )
-                                .collect(Collectors.toList());
+            // protocol   local-address  exteria-address  state  process-id
+            List<String> filtered = new ArrayList<>();
+            CompletedProcess cp = run__(pfr, listening, filtered);
+            if (cp.returncode() == 0) {
                 pfr.addAllFilteredStdout(filtered);
                 if (pfr.filteredStdout().size() == 1) {
-                    Matcher m = Pattern.compile(makeRegexForFilteringWindowsNetstatOutput(port))
-                            .matcher(pfr.filteredStdout().get(0));
+                    Matcher m = pattern.matcher(pfr.filteredStdout().get(0));
                     if (m.matches()) {
                         pfr.setProcessId(Long.parseLong(m.group(8)));
                         pfr.setReturncode(0);
@@ -0,0 +1,44 @@
+package com.kazurayam.subprocessj;
+
+/**
+ * Utilities on java.lang.Process which Java 8 does not provide.
+ *
+ * This is the variant for Java 8, which knows no pid; the variant for Java 9
+ * and later in META-INF/versions/9 uses ProcessHandle.
+ */
+final class Processes {
+
+    private Processes() {}
+
+    /**
+     * @return -1; the pid is not known on Java 8
+     */
+    static long pid(Process process) {
+        return -1;
+    }
+
+    /**
+     * Ask the process to terminate; Process#destroy() sends SIGTERM on Mac and Linux.
+     * On Java 8 it closes the streams of the process as well, so the threads
+     * reading the STDOUT and the STDERR may fail with "Stream closed".
+     */
+    static void signalTerminate(Process process) {
+        process.destroy();
+    }
+
+    /**
+     * Kill the process forcibly. On Java 8 the descendants of the process are not
+     * known, so they are left alive.
+     */
+    static void destroyTree(Process process) {
+        process.destroyForcibly();
+    }
+
+    /**
+     * Java 8 can not list the child processes; the answer is always false.
+     * @return true if a child process having the argument on its command line is running
+     */
+    static boolean isChildRunning(String argument) {
+        return false;
+    }
+}
@@ -0,0 +1,284 @@
+package com.kazurayam.subprocessj;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * Readiness is a condition which tells that a subprocess started in background
+ * (a server, typically) is ready to serve: a line of the STDOUT or the STDERR matches
+ * a pattern, a TCP port accepts connections, or a URL responds HTTP 200.
+ *
+ * <PRE>
+ *     RunningProcess server = new Subprocess().start(
+ *             Arrays.asList("java", "-cp", "build/classes/java/main",
+ *                     "com.kazurayam.subprocessj.HiThereServer"),
+ *             Readiness.tcpPort(8500).deadline(Duration.ofSeconds(10)));
+ *     // the server is accepting connections now
+ * </PRE>
+ *
+ * <p>The TCP port and the URL are polled with an adaptive backoff: the interval starts
+ * at 10 milliseconds and doubles up to 500 milliseconds. A pattern on the output is
+ * detected as soon as the line is read. If the condition is not met by the deadline
+ * (30 seconds as default), or if the subprocess exited before, an IOException is thrown
+ * which tells the reason and the last lines of the STDERR; the subprocess is stopped.</p>
+ *
+ * <p>A Readiness is immutable; you can share it among threads.</p>
+ */
+public final class Readiness {
+
+    public static final Duration DEFAULT_DEADLINE = Duration.ofSeconds(30);
+
+    private static final long INITIAL_INTERVAL_MILLIS = 10;
+    private static final long MAX_INTERVAL_MILLIS = 500;
+
+    private enum Kind { STDOUT, STDERR, TCP, HTTP }
+
+    private final Kind kind;
+    private final Pattern pattern;
+    private final String host;
+    private final int port;
+    private final URL url;
+    private final Duration deadline;
+
+    private Readiness(Kind kind, Pattern pattern, String host, int port, URL url, Duration deadline) {
+        this.kind = kind;
+        this.pattern = pattern;
+        this.host = host;
+        this.port = port;
+        this.url = url;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param pattern will be searched in each line of the STDOUT
+     * @return a Readiness met when a line of the STDOUT matched
+     */
+    public static Readiness stdoutMatches(Pattern pattern) {
+        Objects.requireNonNull(pattern);
+        return new Readiness(Kind.STDOUT, pattern, null, 0, null, DEFAULT_DEADLINE);
+    }
+
+    /**
+     * @param pattern will be searched in each line of the STDERR
+     * @return a Readiness met when a line of the STDERR matched
+     */
+    public static Readiness stderrMatches(Pattern pattern) {
+        Objects.requireNonNull(pattern);
+        return new Readiness(Kind.STDERR, pattern, null, 0, null, DEFAULT_DEADLINE);
+    }
+
+    /**
+     * @param port TCP port on the loopback address 127.0.0.1
+     * @return a Readiness met when the port accepts a connection
+     */
+    public static Readiness tcpPort(int port) {
+        return tcpPort("127.0.0.1", port);
+    }
+
+    /**
+     * @param host host name or IP address
+     * @param port TCP port
+     * @return a Readiness met when the port accepts a connection
+     */
+    public static Readiness tcpPort(String host, int port) {
+        Objects.requireNonNull(host);
+        if (port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("invalid port: " + port);
+        }
+        return new Readiness(Kind.TCP, null, host, port, null, DEFAULT_DEADLINE);
+    }
+
+    /**
+     * @param url http or https URL
+     * @return a Readiness met when a GET request to the url responded the status 200
+     */
+    public static Readiness httpOk(URL url) {
+        Objects.requireNonNull(url);
+        if (! url.getProtocol().startsWith("http")) {
+            throw new IllegalArgumentException("not a http URL: " + url);
+        }
+        return new Readiness(Kind.HTTP, null, null, 0, url, DEFAULT_DEADLINE);
+    }
+
+    /**
+     * @param deadline how long to wait for the condition to be met
+     * @return a new Readiness with the deadline
+     */
+    public Readiness deadline(Duration deadline) {
+        Objects.requireNonNull(deadline);
+        if (deadline.isNegative()) {
+            throw new IllegalArgumentException("deadline must not be negative: " + deadline);
+        }
+        return new Readiness(kind, pattern, host, port, url, deadline);
+    }
+
+    public Duration deadline() {
+        return deadline;
+    }
+
+    /**
+     * Wait for a TCP port or a URL to be ready, which is served by a process
+     * started by other means; e.g, a docker container.
+     * @throws IOException if not ready within the deadline
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     * @throws IllegalStateException if this is a condition on the output of a subprocess
+     */
+    public void await() throws IOException, InterruptedException {
+        if (kind == Kind.STDOUT || kind == Kind.STDERR) {
+            throw new IllegalStateException(this + " requires a subprocess. Use Subprocess#start()");
+        }
+        await(null, null);
+    }
+
+    /**
+     * Wrap the sink of the stream to watch the lines for the pattern.
+     * @return the sink to be consumed instead of the capture
+     */
+    StreamSink watch(OutputEvent.Stream stream, StreamSink capture, Charset charset,
+                     CompletableFuture<Void> matched) {
+        if ((stream == OutputEvent.Stream.STDOUT && kind != Kind.STDOUT) ||
+                (stream == OutputEvent.Stream.STDERR && kind != Kind.STDERR)) {
+            return capture;
+        }
+        final LineDecoder decoder = new LineDecoder(charset, CapturePolicy.DEFAULT_MAX_LINE_LENGTH,
+                line -> {
+                    if (pattern.matcher(line).find()) {
+                        matched.complete(null);
+                    }
+                });
+        return new StreamSink() {
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                capture.write(bytes, offset, length);
+                if (! matched.isDone()) {
+                    decoder.write(bytes, offset, length);
+                }
+            }
+            @Override
+            public void close() {
+                capture.close();
+                decoder.close();
+            }
+        };
+    }
+
+    /**
+     * Wait for the condition to be met.
+     * @param process the subprocess; null if not started by Subprocess
+     * @param matched completed when a line matched the pattern
+     */
+    void await(RunningProcess process, CompletableFuture<Void> matched)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long limit = start + deadline.toNanos();
+        long interval = INITIAL_INTERVAL_MILLIS;
+        while (true) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(limit - System.nanoTime());
+            if (kind == Kind.STDOUT || kind == Kind.STDERR) {
+                try {
+                    matched.get(Math.max(0, Math.min(interval, remaining)), TimeUnit.MILLISECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    // not yet
+                } catch (ExecutionException e) {
+                    throw Subprocess.unwrap(e);
+                }
+            } else {
+                if (probe(Math.max(1, Math.min(remaining, 1000)))) {
+                    return;
+                }
+            }
+            if (process != null && ! process.isAlive()) {
+                // the lines may be matched by the last read
+                if (matched != null && matched.isDone()) {
+                    return;
+                }
+                process.close();
+                throw new IOException(describe__("the subprocess exited before ready", process));
+            }
+            remaining = TimeUnit.NANOSECONDS.toMillis(limit - System.nanoTime());
+            if (remaining <= 0) {
+                if (process != null) {
+                    // stop it so that the STDERR can be reported
+                    process.close();
+                }
+                throw new IOException(describe__("not ready within " + deadline, process));
+            }
+            if (kind == Kind.TCP || kind == Kind.HTTP) {
+                Thread.sleep(Math.min(interval, remaining));
+            }
+            interval = Math.min(interval * 2, MAX_INTERVAL_MILLIS);
+        }
+    }
+
+    private String describe__(String reason, RunningProcess process) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(reason).append(": ").append(this);
+        if (process != null) {
+            sb.append(", ").append(process.commandline());
+            if (! process.isAlive()) {
+                sb.append(", rc=").append(process.exitValue());
+            }
+            List<String> stderr = process.stderrTail(10);
+            if (! stderr.isEmpty()) {
+                sb.append(", stderr:");
+                for (String line : stderr) {
+                    sb.append(System.lineSeparator()).append(line);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private boolean probe(long timeoutMillis) {
+        if (kind == Kind.TCP) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), (int) timeoutMillis);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        } else {
+            HttpURLConnection conn = null;
+            try {
+                conn = (HttpURLConnection) url.openConnection();
+                conn.setConnectTimeout((int) timeoutMillis);
+                conn.setReadTimeout((int) timeoutMillis);
+                conn.setUseCaches(false);
+                return conn.getResponseCode() == 200;
+            } catch (IOException e) {
+                return false;
+            } finally {
+                if (conn != null) {
+                    conn.disconnect();
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case STDOUT:
+                return "Readiness(stdout matches /" + pattern + "/)";
+            case STDERR:
+                return "Readiness(stderr matches /" + pattern + "/)";
+            case TCP:
+                return "Readiness(tcp " + host + ":" + port + ")";
+            default:
+                return "Readiness(http 200 " + url + ")";
+        }
+    }
+}
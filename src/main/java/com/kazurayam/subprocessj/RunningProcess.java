@@ -0,0 +1,179 @@
+package com.kazurayam.subprocessj;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+
+/**
+ * RunningProcess is a handle of a subprocess started in background by Subprocess#start().
+ * The STDOUT and the STDERR are consumed by the OutputMultiplexer while it runs.
+ *
+ * <PRE>
+ *     try (RunningProcess server = new Subprocess().start(command, Readiness.tcpPort(8500))) {
+ *         // talk to the server
+ *         server.stdout().forEach(System.out::println);   // the lines printed so far
+ *     }   // the server is stopped
+ * </PRE>
+ *
+ * <p>stdout() and stderr() return read-only views of the lines captured so far.
+ * They are cheap: the lines are not copied, unless the CapturePolicy is bounded
+ * and the tail lines are being retained. They are not available while running
+ * with CapturePolicy.raw() or with redirected files.</p>
+ */
+public final class RunningProcess implements Closeable {
+
+    private final Process process;
+    private final CompletedProcess cp;
+    private final CompletableFuture<CompletedProcess> exit;
+    private final Duration gracePeriod;
+
+    RunningProcess(Process process, CompletedProcess cp,
+                   CompletableFuture<CompletedProcess> exit, Duration gracePeriod) {
+        this.process = Objects.requireNonNull(process);
+        this.cp = Objects.requireNonNull(cp);
+        this.exit = Objects.requireNonNull(exit);
+        this.gracePeriod = Objects.requireNonNull(gracePeriod);
+    }
+
+    /**
+     * @return true if the subprocess has not exited yet
+     */
+    public boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * @return the pid of the subprocess; -1 if not known (on Java 8)
+     */
+    public long pid() {
+        return Processes.pid(process);
+    }
+
+    /**
+     * @return the command line of the subprocess
+     */
+    public String commandline() {
+        return cp.commandline();
+    }
+
+    /**
+     * @return a future completed with the CompletedProcess when the subprocess exited
+     * and its STDOUT and STDERR were consumed
+     */
+    public CompletableFuture<CompletedProcess> onExit() {
+        return exit;
+    }
+
+    /**
+     * @return the lines of the STDOUT captured so far
+     * @throws IllegalStateException if not available while running
+     */
+    public List<String> stdout() {
+        return snapshot__(cp.stdoutCapture());
+    }
+
+    /**
+     * @return the lines of the STDERR captured so far
+     * @throws IllegalStateException if not available while running
+     */
+    public List<String> stderr() {
+        return snapshot__(cp.stderrCapture());
+    }
+
+    private List<String> snapshot__(OutputCapture capture) {
+        if (capture.supportsSnapshot() || exit.isDone()) {
+            return Collections.unmodifiableList(capture.lines());
+        }
+        throw new IllegalStateException("the output is not available while running; " +
+                "use CapturePolicy.unlimited(), headTail() or timeline()");
+    }
+
+    /**
+     * Wait for the subprocess to exit and its output to be consumed.
+     * @param timeout how long to wait
+     * @return the CompletedProcess; empty if the subprocess is still running after the timeout
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public Optional<CompletedProcess> awaitExit(Duration timeout) throws InterruptedException {
+        Objects.requireNonNull(timeout);
+        try {
+            return Optional.of(exit.get(timeout.toNanos(), TimeUnit.NANOSECONDS));
+        } catch (TimeoutException e) {
+            return Optional.empty();
+        } catch (ExecutionException e) {
+            // failed to consume the output; the lines captured so far are returned
+            if (process.isAlive()) {
+                return Optional.empty();
+            }
+            cp.setReturnCode(process.exitValue());
+            return Optional.of(cp);
+        }
+    }
+
+    int exitValue() {
+        return process.exitValue();
+    }
+
+    /**
+     * @return the last lines of the STDERR; empty if not available
+     */
+    List<String> stderrTail(int n) {
+        try {
+            List<String> lines = stderr();
+            return lines.subList(Math.max(0, lines.size() - n), lines.size());
+        } catch (IllegalStateException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Ask the subprocess to terminate softly (SIGTERM on Mac and Linux);
+     * kill it forcibly if it is still alive after the grace period.
+     * @return the CompletedProcess with the return code and the output captured
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public CompletedProcess stop() throws InterruptedException {
+        if (process.isAlive()) {
+            Processes.signalTerminate(process);
+            if (! process.waitFor(gracePeriod.toNanos(), TimeUnit.NANOSECONDS)) {
+                process.destroyForcibly();
+                process.waitFor();
+            }
+        }
+        try {
+            return exit.get(gracePeriod.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // the output might be incomplete
+            cp.setReturnCode(process.exitValue());
+            return cp;
+        }
+    }
+
+    /**
+     * Same as stop()
+     */
+    @Override
+    public void close() {
+        try {
+            stop();
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<running-process pid=\"" + pid() + "\" alive=\"" + isAlive() + "\"><command>" + commandline() +
+                "</command></running-process>";
+    }
+}
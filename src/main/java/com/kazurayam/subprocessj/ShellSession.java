@@ -0,0 +1,313 @@
+package com.kazurayam.subprocessj;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+
+/**
+ * ShellSession keeps a /bin/sh process alive, and runs many commands in it
+ * by writing them into its STDIN. The JVM forks only once, when the session starts.
+ * For a burst of small commands (which, lsof, kill, ...) this is far faster
+ * than Subprocess#run() which forks the JVM for each command.
+ *
+ * <PRE>
+ *     try (ShellSession session = new ShellSession()) {
+ *         CompletedProcess cp1 = session.run(Arrays.asList("which", "git"));
+ *         CompletedProcess cp2 = session.run(Arrays.asList("lsof", "-i:8080", "-P"));
+ *     }
+ * </PRE>
+ *
+ * <p>Each command runs in a subshell "( ... )" with its STDIN connected to /dev/null,
+ * so that "cd", "exit" or "export" in a command do not affect the session.
+ * The end of the output of a command is detected by a sentinel line,
+ * which carries the return code of the command, printed to the STDOUT and the STDERR.
+ * The sentinel contains a random UUID, so it will not be confused with the real output.</p>
+ *
+ * <p>A script with an unbalanced quote or an unterminated here-document swallows the
+ * sentinel, and the command never ends. Give a timeout to run() or runScript();
+ * when it expires the session is destroyed, with the processes started in it.</p>
+ *
+ * <p>Supported on Mac and Linux. Commands are run one at a time;
+ * a ShellSession can be shared among threads, but they will wait for each other.</p>
+ */
+public class ShellSession implements Closeable {
+
+    private final Process shell;
+    private final Writer stdin;
+    private final BufferedReader stdout;
+    private final BufferedReader stderr;
+    private final String sentinel;
+    private final Charset charset;
+    private CapturePolicy capturePolicy = CapturePolicy.unlimited();
+    private long count = 0;
+
+    /**
+     * start a /bin/sh in the current working directory
+     * @throws IOException if failed to start /bin/sh
+     */
+    public ShellSession() throws IOException {
+        this(new File("."));
+    }
+
+    /**
+     * @param cwd the working directory of the shell
+     * @throws IOException if failed to start /bin/sh
+     */
+    public ShellSession(File cwd) throws IOException {
+        Objects.requireNonNull(cwd);
+        if (! (OSType.isMac() || OSType.isUnix())) {
+            throw new IllegalStateException("OSType: " + OSType.getOSType() + " is unsupported");
+        }
+        if (! cwd.isDirectory()) {
+            throw new IllegalArgumentException(cwd.getAbsolutePath() + " is not a directory");
+        }
+        this.charset = Charset.defaultCharset();
+        this.shell = new ProcessBuilder("/bin/sh").directory(cwd).start();
+        this.stdin = new OutputStreamWriter(shell.getOutputStream(), charset);
+        this.stdout = new BufferedReader(new InputStreamReader(shell.getInputStream(), charset));
+        this.stderr = new BufferedReader(new InputStreamReader(shell.getErrorStream(), charset));
+        this.sentinel = "__subprocessj_" + UUID.randomUUID().toString().replace("-", "") + "__";
+    }
+
+    /**
+     * @param capturePolicy how much of the STDOUT and the STDERR to retain for each command
+     * @return the ShellSession object. for functional call chaining.
+     */
+    public ShellSession capturePolicy(CapturePolicy capturePolicy) {
+        Objects.requireNonNull(capturePolicy);
+        if (capturePolicy.isRaw() || capturePolicy.isTimeline()) {
+            throw new IllegalArgumentException(capturePolicy + " is not supported by ShellSession");
+        }
+        this.capturePolicy = capturePolicy;
+        return this;
+    }
+
+    /**
+     * Run a command, each argument is quoted for the shell.
+     * @param command E.g Array.asList("ls", "-la", ".")
+     * @return a CompletedProcess of the command
+     * @throws IOException if the shell has terminated
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public CompletedProcess run(List<String> command) throws IOException, InterruptedException {
+        return run__(command, commandline__(command), null);
+    }
+
+    /**
+     * Run a command, each argument is quoted for the shell.
+     * @param command E.g Array.asList("ls", "-la", ".")
+     * @param timeout how long to wait for the command to finish
+     * @return a CompletedProcess of the command
+     * @throws IOException if the shell has terminated, or the command did not finish
+     * within the timeout; then the session has been destroyed
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public CompletedProcess run(List<String> command, Duration timeout)
+            throws IOException, InterruptedException {
+        Objects.requireNonNull(timeout);
+        return run__(command, commandline__(command), timeout);
+    }
+
+    private static String commandline__(List<String> command) {
+        Objects.requireNonNull(command);
+        if (command.isEmpty()) {
+            throw new IllegalArgumentException("command must not be empty");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String arg : command) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(quote(arg));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Run a script as it is; you can use pipes, redirections and so on.
+     * @param script E.g "ls -la | grep foo"
+     * @return a CompletedProcess of the script
+     * @throws IOException if the shell has terminated
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public CompletedProcess runScript(String script) throws IOException, InterruptedException {
+        Objects.requireNonNull(script);
+        return run__(Arrays.asList("/bin/sh", "-c", script), script, null);
+    }
+
+    /**
+     * Run a script as it is; you can use pipes, redirections and so on.
+     * @param script E.g "ls -la | grep foo"
+     * @param timeout how long to wait for the script to finish
+     * @return a CompletedProcess of the script
+     * @throws IOException if the shell has terminated, or the script did not finish
+     * within the timeout; then the session has been destroyed
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public CompletedProcess runScript(String script, Duration timeout)
+            throws IOException, InterruptedException {
+        Objects.requireNonNull(script);
+        Objects.requireNonNull(timeout);
+        return run__(Arrays.asList("/bin/sh", "-c", script), script, timeout);
+    }
+
+    private synchronized CompletedProcess run__(List<String> args, String script, Duration timeout)
+            throws IOException, InterruptedException {
+        if (! shell.isAlive()) {
+            throw new IOException("the shell has terminated with rc=" + shell.exitValue());
+        }
+        count += 1;
+        final String marker = sentinel + count;
+        final int maxLineLength = capturePolicy.maxLineLength();
+        LineCapture stdoutCapture = new LineCapture(capturePolicy, charset, null, true);
+        LineCapture stderrCapture = new LineCapture(capturePolicy, charset, null, true);
+        CompletedProcess cp = new CompletedProcess(args, stdoutCapture, stderrCapture);
+
+        stdin.write("( " + script + "\n) </dev/null; printf '%s %d\\n' '" + marker + "' $?; printf '%s\\n' '"
+                + marker + "' 1>&2\n");
+        stdin.flush();
+
+        ExecutorService es = Subprocess.getDefaultExecutor();
+        Future<String> stderrFuture = es.submit(() -> {
+            readUntil(stderr, marker, stderrCapture, maxLineLength);
+            return "done";
+        });
+        Future<String> stdoutFuture = es.submit(() ->
+                readUntil(stdout, marker, stdoutCapture, maxLineLength));
+        String rest;
+        try {
+            if (timeout == null) {
+                rest = stdoutFuture.get();
+                stderrFuture.get();
+            } else {
+                long deadline = System.nanoTime() + timeout.toNanos();
+                rest = stdoutFuture.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+                stderrFuture.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException e) {
+            Processes.destroyTree(shell);
+            throw new IOException("did not finish within " + timeout +
+                    "; the session was destroyed: " + script);
+        } catch (InterruptedException e) {
+            Processes.destroyTree(shell);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof IOException) ? (IOException)cause : new IOException(cause);
+        }
+        try {
+            cp.setReturnCode(Integer.parseInt(rest.trim()));
+        } catch (NumberFormatException e) {
+            throw new IOException("unexpected sentinel: " + marker + rest);
+        }
+        return cp;
+    }
+
+    /**
+     * Read lines until the sentinel line. A line longer than maxLineLength chars is
+     * handed to the capture in pieces as LineDecoder does, so the memory is bounded;
+     * enough chars are kept to find the marker straddling the end of a piece.
+     * @return the text following the marker in the sentinel line
+     */
+    private static String readUntil(BufferedReader reader, String marker, LineCapture capture,
+                                    int maxLineLength) throws IOException {
+        final int limit = (maxLineLength == CapturePolicy.UNLIMITED)
+                ? Integer.MAX_VALUE : maxLineLength + marker.length() + 16;
+        StringBuilder sb = new StringBuilder();
+        boolean afterCR = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == '\n' && afterCR) {
+                afterCR = false;
+                continue;
+            }
+            afterCR = (c == '\r');
+            if (c == '\n' || c == '\r') {
+                int i = sb.indexOf(marker);
+                if (i >= 0) {
+                    // the output of the command may not end with a newline
+                    addPieces(capture, sb.substring(0, i), maxLineLength, i > 0);
+                    return sb.substring(i + marker.length());
+                }
+                addPieces(capture, sb.toString(), maxLineLength, true);
+                sb.setLength(0);
+            } else {
+                sb.append((char)c);
+                if (sb.length() >= limit && sb.indexOf(marker) < 0) {
+                    capture.add(sb.substring(0, maxLineLength));
+                    sb.delete(0, maxLineLength);
+                }
+            }
+        }
+        throw new IOException("the shell has terminated unexpectedly");
+    }
+
+    private static void addPieces(LineCapture capture, String line, int maxLineLength, boolean addEmpty) {
+        if (line.isEmpty()) {
+            if (addEmpty) {
+                capture.add(line);
+            }
+            return;
+        }
+        int step = (maxLineLength == CapturePolicy.UNLIMITED) ? line.length() : maxLineLength;
+        for (int i = 0; i < line.length(); i += step) {
+            capture.add(line.substring(i, Math.min(line.length(), i + step)));
+        }
+    }
+
+    /**
+     * @return true if the shell is alive
+     */
+    public boolean isAlive() {
+        return shell.isAlive();
+    }
+
+    /**
+     * Terminate the shell.
+     */
+    @Override
+    public void close() {
+        try {
+            stdin.write("exit\n");
+            stdin.flush();
+            stdin.close();
+            if (! shell.waitFor(5, TimeUnit.SECONDS)) {
+                shell.destroyForcibly();
+            }
+        } catch (IOException e) {
+            shell.destroyForcibly();
+        } catch (InterruptedException e) {
+            shell.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Quote a string for the POSIX shell, e.g, "it's" to "'it'\''s'"
+     * @param arg a command line argument
+     * @return the argument quoted
+     */
+    public static String quote(String arg) {
+        if (arg.length() > 0 && arg.matches("[A-Za-z0-9_@%+=:,./-]+")) {
+            return arg;
+        }
+        return "'" + arg.replace("'", "'\\''") + "'";
+    }
+}
@@ -0,0 +1,328 @@
+package com.kazurayam.subprocessj;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SpawnServer is a small helper process (/bin/sh) started once, which starts
+ * subprocesses on behalf of the JVM. The JVM forks only once, when the SpawnServer
+ * starts; after that the cost of starting a subprocess does not depend on the
+ * size of the JVM heap.
+ *
+ * <PRE>
+ *     SpawnServer spawnServer = new SpawnServer();
+ *     CompletedProcess cp = new Subprocess()
+ *             .spawnServer(spawnServer)
+ *             .run(Arrays.asList("ls", "-la", "."));
+ *     ...
+ *     spawnServer.close();
+ * </PRE>
+ *
+ * <p>A request to spawn a command is written into the STDIN of the helper as a line
+ * of shell script; the helper starts the command in background with the given
+ * working directory and environment variables, the STDIN connected to /dev/null
+ * (or to the file of StdinSource.fromPath()), the STDOUT and the STDERR redirected
+ * into files. The helper reports the pid and the return code of the command
+ * to the JVM through its STDOUT; then the files are read into the CompletedProcess.</p>
+ *
+ * <p>Limitations compared to ProcessBuilder:</p>
+ * <ul>
+ * <li>supported on Mac and Linux only</li>
+ * <li>only StdinSource.fromPath() can be fed to the STDIN</li>
+ * <li>the output is available after the command exited; Consumers receive the lines then</li>
+ * <li>a command not found results in the returncode 127, not an IOException</li>
+ * </ul>
+ */
+public class SpawnServer implements Closeable {
+
+    private final Process helper;
+    private final Writer commands;
+    private final Path tempDir;
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final Map<Long, Spawn> pending = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    /**
+     * start the helper process
+     * @throws IOException if failed to start /bin/sh
+     */
+    public SpawnServer() throws IOException {
+        if (! (OSType.isMac() || OSType.isUnix())) {
+            throw new IllegalStateException("OSType: " + OSType.getOSType() + " is unsupported");
+        }
+        this.tempDir = Files.createTempDirectory("subprocessj-spawn");
+        this.helper = new ProcessBuilder("/bin/sh")
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        this.commands = new OutputStreamWriter(helper.getOutputStream(), Charset.defaultCharset());
+        Thread reader = new Thread(this::readReports__, "subprocessj-spawn-server");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Spawn a command in background.
+     *
+     * @param command the command and its arguments
+     * @param cwd the working directory
+     * @param environment the whole environment variables of the command
+     * @param stdinFile the file to be redirected to the STDIN, or null for /dev/null
+     * @param stdoutFile the file into which the STDOUT is written, or null for a temporary file
+     * @param stderrFile the file into which the STDERR is written, or null for a temporary file
+     * @param redirectErrorStream true to merge the STDERR into the STDOUT
+     * @param stdoutSink receives the STDOUT read from the temporary file; ignored if stdoutFile is given
+     * @param stderrSink receives the STDERR read from the temporary file; ignored if stderrFile is given
+     * @return a Spawn, whose exit is completed with the return code after the output was read
+     */
+    Spawn spawn(List<String> command, File cwd, Map<String, String> environment,
+                File stdinFile, File stdoutFile, File stderrFile, boolean redirectErrorStream,
+                StreamSink stdoutSink, StreamSink stderrSink) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("SpawnServer has been closed");
+        }
+        if (command.isEmpty()) {
+            throw new IllegalArgumentException("command must not be empty");
+        }
+        long id = sequence.incrementAndGet();
+        File out = (stdoutFile != null) ? stdoutFile : tempDir.resolve("out-" + id).toFile();
+        File err = (stderrFile != null) ? stderrFile : tempDir.resolve("err-" + id).toFile();
+        Spawn spawn = new Spawn(id,
+                (stdoutFile != null) ? null : out, stdoutSink,
+                (stderrFile != null || redirectErrorStream) ? null : err, stderrSink);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("( cd ").append(ShellSession.quote(cwd.getAbsolutePath()))
+                .append(" 2>").append(ShellSession.quote(err.getAbsolutePath()))
+                .append(" && { env -i");
+        for (Map.Entry<String, String> e : environment.entrySet()) {
+            sb.append(' ').append(ShellSession.quote(e.getKey() + "=" + e.getValue()));
+        }
+        for (String arg : command) {
+            sb.append(' ').append(ShellSession.quote(arg));
+        }
+        sb.append(" <").append((stdinFile != null) ? ShellSession.quote(stdinFile.getAbsolutePath()) : "/dev/null");
+        sb.append(" >").append(ShellSession.quote(out.getAbsolutePath()));
+        if (redirectErrorStream) {
+            sb.append(" 2>&1");
+        } else {
+            sb.append(" 2>").append(ShellSession.quote(err.getAbsolutePath()));
+        }
+        sb.append(" & echo \"pid ").append(id).append(" $!\"; wait $! 2>/dev/null; }; echo \"done ")
+                .append(id).append(" $?\" ) &\n");
+
+        pending.put(id, spawn);
+        try {
+            synchronized (commands) {
+                commands.write(sb.toString());
+                commands.flush();
+            }
+        } catch (IOException e) {
+            pending.remove(id);
+            throw new IOException("SpawnServer is not available", e);
+        }
+        return spawn;
+    }
+
+    /**
+     * read the reports written by the helper: "pid ID PID" and "done ID RC"
+     */
+    private void readReports__() {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(helper.getInputStream(), Charset.defaultCharset()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.trim().split(" ");
+                if (tokens.length != 3) {
+                    continue;
+                }
+                long id;
+                int value;
+                try {
+                    id = Long.parseLong(tokens[1]);
+                    value = Integer.parseInt(tokens[2]);
+                } catch (NumberFormatException e) {
+                    // not a report; some command wrote into the helper's STDOUT. skip it
+                    continue;
+                }
+                if (tokens[0].equals("pid")) {
+                    Spawn spawn = pending.get(id);
+                    if (spawn != null) {
+                        spawn.started(value);
+                    }
+                } else if (tokens[0].equals("done")) {
+                    Spawn spawn = pending.remove(id);
+                    if (spawn != null) {
+                        Subprocess.getDefaultExecutor().execute(() -> spawn.finish(value));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // fall through
+        }
+        IOException e = new IOException("SpawnServer has terminated");
+        for (Spawn spawn : pending.values()) {
+            spawn.exit.completeExceptionally(e);
+        }
+        pending.clear();
+    }
+
+    private void kill__(int pid, String signal) throws IOException {
+        synchronized (commands) {
+            commands.write("kill -" + signal + " " + pid + " 2>/dev/null\n");
+            commands.flush();
+        }
+    }
+
+    /**
+     * @return true if the helper process is alive
+     */
+    public boolean isAlive() {
+        return helper.isAlive();
+    }
+
+    /**
+     * Stop the helper process. The commands already spawned keep running,
+     * but their output will not be collected.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            commands.close();
+            if (! helper.waitFor(5, TimeUnit.SECONDS)) {
+                helper.destroyForcibly();
+            }
+        } catch (IOException e) {
+            helper.destroyForcibly();
+        } catch (InterruptedException e) {
+            helper.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        File[] files = tempDir.toFile().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        tempDir.toFile().delete();
+    }
+
+    /**
+     * A command spawned by the SpawnServer
+     */
+    final class Spawn {
+        private final long id;
+        private final File stdoutTemp;
+        private final StreamSink stdoutSink;
+        private final File stderrTemp;
+        private final StreamSink stderrSink;
+        private final CompletableFuture<Integer> pid = new CompletableFuture<>();
+        final CompletableFuture<Integer> exit = new CompletableFuture<>();
+
+        Spawn(long id, File stdoutTemp, StreamSink stdoutSink, File stderrTemp, StreamSink stderrSink) {
+            this.id = id;
+            this.stdoutTemp = stdoutTemp;
+            this.stdoutSink = stdoutSink;
+            this.stderrTemp = stderrTemp;
+            this.stderrSink = stderrSink;
+        }
+
+        private void started(int processId) {
+            pid.complete(processId);
+        }
+
+        private void finish(int returncode) {
+            try {
+                copy__(stdoutTemp, stdoutSink);
+                copy__(stderrTemp, stderrSink);
+                exit.complete(returncode);
+            } catch (IOException | RuntimeException e) {
+                exit.completeExceptionally(e);
+            }
+        }
+
+        private void copy__(File temp, StreamSink sink) throws IOException {
+            if (temp == null) {
+                return;
+            }
+            try {
+                if (temp.exists()) {
+                    try (InputStream in = new FileInputStream(temp)) {
+                        byte[] buffer = new byte[8192];
+                        int n;
+                        while ((n = in.read(buffer)) != -1) {
+                            sink.write(buffer, 0, n);
+                        }
+                    }
+                }
+                sink.close();
+            } finally {
+                temp.delete();
+            }
+        }
+
+        /**
+         * Kill the command forcibly (SIGKILL) without waiting, as soon as its pid is reported.
+         */
+        void kill() {
+            pid.thenAccept(processId -> {
+                if (! exit.isDone()) {
+                    try {
+                        kill__(processId, "KILL");
+                    } catch (IOException ignore) {
+                        // the helper is gone; exit completes exceptionally
+                    }
+                }
+            });
+        }
+
+        /**
+         * Terminate the command softly (SIGTERM), then forcibly (SIGKILL) after the grace period.
+         * @return the return code of the terminated command
+         */
+        int terminate(Duration gracePeriod) throws IOException, InterruptedException {
+            try {
+                if (! exit.isDone()) {
+                    int processId = pid.get(gracePeriod.toNanos(), TimeUnit.NANOSECONDS);
+                    kill__(processId, "TERM");
+                    try {
+                        return exit.get(gracePeriod.toNanos(), TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException e) {
+                        kill__(processId, "KILL");
+                    }
+                }
+                return exit.get();
+            } catch (TimeoutException e) {
+                throw new IOException("the pid of " + this + " was not reported", e);
+            } catch (ExecutionException e) {
+                throw Subprocess.unwrap(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Spawn#" + id;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.kazurayam.subprocessj;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * StdinSource is the data to be fed into the STDIN of a subprocess.
+ *
+ * <PRE>
+ *     CompletedProcess cp = new Subprocess()
+ *             .stdin(StdinSource.fromPath(Paths.get("data.json")))
+ *             .run(Arrays.asList("jq", ".name"));
+ * </PRE>
+ *
+ * <p>A file given by fromPath() is connected to the STDIN by
+ * ProcessBuilder.Redirect.from(file), so that the OS copies the data; no Java thread is involved.
+ * The other sources are written into the STDIN by a thread of the shared ExecutorService
+ * while the STDOUT and the STDERR are consumed by other threads, so that writing
+ * a large input will not deadlock against the subprocess blocked on writing its output.
+ * The STDIN is closed when the source is exhausted.</p>
+ *
+ * <p>If the subprocess exits without reading all of the input (e.g, "head -1"),
+ * the rest of the input is silently discarded.</p>
+ *
+ * <p>The sources given by fromInputStream() and fromSupplier() can be read only once;
+ * running a command with such a source twice throws IllegalStateException.
+ * Set a new StdinSource to the Subprocess for each run.</p>
+ */
+public abstract class StdinSource {
+
+    private StdinSource() {}
+
+    /**
+     * @param inputStream will be read until the end, then closed
+     * @return a StdinSource which can be used only once
+     */
+    public static StdinSource fromInputStream(InputStream inputStream) {
+        Objects.requireNonNull(inputStream);
+        return new InputStreamSource(inputStream);
+    }
+
+    /**
+     * @param path a file to be redirected to the STDIN
+     * @return a StdinSource
+     */
+    public static StdinSource fromPath(Path path) {
+        Objects.requireNonNull(path);
+        if (! Files.exists(path)) {
+            throw new IllegalArgumentException(path + " does not exist");
+        }
+        return new PathSource(path);
+    }
+
+    /**
+     * @param bytes the whole input
+     * @return a StdinSource
+     */
+    public static StdinSource fromBytes(byte[] bytes) {
+        Objects.requireNonNull(bytes);
+        return new BytesSource(bytes);
+    }
+
+    /**
+     * @param chunks will be called repeatedly to get the next chunk of the input,
+     *               until it returns null
+     * @return a StdinSource which can be used only once
+     */
+    public static StdinSource fromSupplier(Supplier<byte[]> chunks) {
+        Objects.requireNonNull(chunks);
+        return new SupplierSource(chunks);
+    }
+
+    /**
+     * @return the Redirect to be set to the ProcessBuilder#redirectInput()
+     */
+    ProcessBuilder.Redirect redirect() {
+        return ProcessBuilder.Redirect.PIPE;
+    }
+
+    /**
+     * Called before a subprocess is started with this source.
+     * @throws IllegalStateException if this source can be used only once and has been used
+     */
+    void acquire() {}
+
+    /**
+     * Called when the subprocess acquired this source failed to start;
+     * the source has not been read and can be used again.
+     */
+    void release() {}
+
+    /**
+     * @return true if the data is to be written by writeTo()
+     */
+    boolean needsWriter() {
+        return true;
+    }
+
+    /**
+     * Write the data into the STDIN of the subprocess, then close it.
+     * An IOException on reading the source is thrown; an IOException on
+     * writing into the subprocess (e.g, the subprocess has exited) stops writing silently.
+     */
+    void writeTo(OutputStream stdin) throws IOException {
+        try {
+            write__(stdin);
+        } catch (StdinClosedException e) {
+            // the subprocess does not want any more input
+        } finally {
+            try {
+                stdin.close();
+            } catch (IOException ignore) {
+                // the pipe is already broken
+            }
+        }
+    }
+
+    abstract void write__(OutputStream stdin) throws IOException;
+
+    static void put(OutputStream stdin, byte[] bytes, int offset, int length) throws StdinClosedException {
+        try {
+            stdin.write(bytes, offset, length);
+        } catch (IOException e) {
+            throw new StdinClosedException(e);
+        }
+    }
+
+    static final class StdinClosedException extends IOException {
+        private static final long serialVersionUID = 1L;
+        StdinClosedException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    private static final class InputStreamSource extends StdinSource {
+        private final InputStream inputStream;
+        private final AtomicBoolean used = new AtomicBoolean(false);
+        InputStreamSource(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+        @Override
+        void acquire() {
+            if (! used.compareAndSet(false, true)) {
+                throw new IllegalStateException(
+                        "StdinSource.fromInputStream() can be used only once; set a new StdinSource for each run");
+            }
+        }
+        @Override
+        void release() {
+            used.set(false);
+        }
+        @Override
+        void write__(OutputStream stdin) throws IOException {
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = inputStream.read(buffer)) != -1) {
+                    put(stdin, buffer, 0, n);
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+    }
+
+    private static final class PathSource extends StdinSource {
+        private final Path path;
+        PathSource(Path path) {
+            this.path = path;
+        }
+        @Override
+        ProcessBuilder.Redirect redirect() {
+            return ProcessBuilder.Redirect.from(path.toFile());
+        }
+        @Override
+        boolean needsWriter() {
+            return false;
+        }
+        @Override
+        void write__(OutputStream stdin) {
+            throw new IllegalStateException("redirected from " + path);
+        }
+    }
+
+    private static final class BytesSource extends StdinSource {
+        private final byte[] bytes;
+        BytesSource(byte[] bytes) {
+            this.bytes = bytes;
+        }
+        @Override
+        void write__(OutputStream stdin) throws IOException {
+            put(stdin, bytes, 0, bytes.length);
+        }
+    }
+
+    private static final class SupplierSource extends StdinSource {
+        private final Supplier<byte[]> chunks;
+        private final AtomicBoolean used = new AtomicBoolean(false);
+        SupplierSource(Supplier<byte[]> chunks) {
+            this.chunks = chunks;
+        }
+        @Override
+        void acquire() {
+            if (! used.compareAndSet(false, true)) {
+                throw new IllegalStateException(
+                        "StdinSource.fromSupplier() can be used only once; set a new StdinSource for each run");
+            }
+        }
+        @Override
+        void release() {
+            used.set(false);
+        }
+        @Override
+        void write__(OutputStream stdin) throws IOException {
+            byte[] chunk;
+            while ((chunk = chunks.get()) != null) {
+                put(stdin, chunk, 0, chunk.length);
+            }
+        }
+    }
+}
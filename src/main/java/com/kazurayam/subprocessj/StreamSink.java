@@ -0,0 +1,13 @@
+package com.kazurayam.subprocessj;
+
+/**
+ * Receives the bytes read out of the STDOUT or the STDERR of a subprocess.
+ * write() is called repeatedly by a single thread, then close() is called
+ * once when the stream reached the end.
+ */
+interface StreamSink {
+
+    void write(byte[] bytes, int offset, int length);
+
+    void close();
+}
@@ -8,17 +8,25 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * <p>Subprocess object allows you to spawn new OS subprocess using
@@ -60,16 +68,20 @@ import java.util.function.Consumer;
  *
  * <p>The following features are supported:</p>
  * <ol>
- * <li>returning the return code from the Subpprocess</li>
- * <li>capturing the STDOUT from the Subprocess</li>
- * <li>capturing the STDERR from the Subprocess</li>
- * <li>starting a subprocess with a modified working directory</li>
+ * <li>returning the return code, capturing the STDOUT and the STDERR of the Subprocess</li>
+ * <li>modifying the working directory and the environment variables</li>
+ * <li>feeding the STDIN, redirecting the STDOUT/STDERR into files</li>
+ * <li>bounding the memory to retain the output by a CapturePolicy</li>
+ * <li>running with a timeout, asynchronously, or in background</li>
+ * <li>streaming the output to Consumers, Streams, ByteSinks or Flow.Subscribers</li>
  * </ol>
+ * <p>See the docs of the methods, and the README, for the details.</p>
+ *
+ * <p>A Subprocess instance is not thread-safe, as it holds a ProcessBuilder.
+ * In order to run a command from many threads, build a CommandSpec.</p>
  *
  * <p>The following features are still to be considered:</p>
  * <ol>
- * <li>PIPE: Connecting INPUT from other process as STDIN for the Subprocess</li>
- * <li>Starting a Subprocess with a modified Environment variables</li>
  * <li>inheriting the I/O of the Current Process</li>
  * </ol>
  *
@@ -78,14 +90,61 @@ import java.util.function.Consumer;
  */
 public class Subprocess {
 
+    public static final Duration DEFAULT_GRACE_PERIOD = Duration.ofSeconds(5);
+
+    private static volatile ExecutorService defaultExecutor = null;
+
+    private static volatile OutputMultiplexer defaultMultiplexer = null;
+
     private File cwd = new File(".");
 
     private ProcessBuilder processBuilder;
 
+    private CapturePolicy capturePolicy = CapturePolicy.unlimited();
+
+    private Charset charset = Charset.defaultCharset();
+
+    private ExecutorService executor = null;
+
+    private OutputMultiplexer multiplexer = null;
+
+    private Duration gracePeriod = DEFAULT_GRACE_PERIOD;
+
+    private StdinSource stdin = null;
+
+    private File stdoutFile = null;
+
+    private File stderrFile = null;
+
+    private SpawnServer spawnServer = null;
+
+    private LineFilter stdoutFilter = null;
+
+    private boolean validated = false;
+
     public Subprocess() {
         processBuilder = new ProcessBuilder();
     }
 
+    /**
+     * A Subprocess configured by a CommandSpec, used for a single execution.
+     * The spec has been validated when it was built.
+     */
+    Subprocess(CommandSpec spec) {
+        processBuilder = new ProcessBuilder();
+        this.cwd = spec.cwd();
+        this.capturePolicy = spec.capturePolicy();
+        this.charset = spec.charset();
+        this.gracePeriod = spec.gracePeriod();
+        if (spec.environmentSnapshot() != null) {
+            Map<String, String> env = processBuilder.environment();
+            env.clear();
+            env.putAll(spec.environmentSnapshot());
+        }
+        processBuilder.redirectErrorStream(spec.redirectErrorStream());
+        this.validated = true;
+    }
+
     public Map<String, String> environment() {
         return processBuilder.environment();
     }
@@ -114,6 +173,191 @@ public class Subprocess {
         return this;
     }
 
+    /**
+     * Change how much of the STDOUT and the STDERR should be retained in the CompletedProcess.
+     * As default, will be set as CapturePolicy.unlimited(), which retains all lines.
+     * @param capturePolicy e.g, CapturePolicy.headTail(100, 100)
+     * @return the Subprocess object. for functional call chaining.
+     */
+    public Subprocess capturePolicy(CapturePolicy capturePolicy) {
+        Objects.requireNonNull(capturePolicy);
+        this.capturePolicy = capturePolicy;
+        return this;
+    }
+
+    /**
+     * Change the charset to decode the STDOUT and the STDERR with.
+     * As default, will be set as the platform default charset.
+     * @param charset e.g, StandardCharsets.UTF_8
+     * @return the Subprocess object. for functional call chaining.
+     */
+    public Subprocess charset(Charset charset) {
+        Objects.requireNonNull(charset);
+        this.charset = charset;
+        return this;
+    }
+
+    /**
+     * Feed the data into the STDIN of the subprocess.
+     * As default, nothing is written into the STDIN.
+     * @param stdin e.g, StdinSource.fromPath(Paths.get("input.png"))
+     * @return the Subprocess object. for functional call chaining.
+     */
+    public Subprocess stdin(StdinSource stdin) {
+        Objects.requireNonNull(stdin);
+        this.stdin = stdin;
+        return this;
+    }
+
+    /**
+     * Let the OS write the STDOUT of the subprocess directly into the file,
+     * by ProcessBuilder.Redirect.to(file). No Java thread touches the data.
+     * The stdout() of the CompletedProcess copies all lines of the file into the heap;
+     * call CompletedProcess#stdoutMapped() instead to read a large output through
+     * a memory-mapped view of the file.
+     * @param file to be created or overwritten
+     * @return the Subprocess object. for functional call chaining.
+     */
+    public Subprocess redirectStdout(File file) {
+        Objects.requireNonNull(file);
+        this.stdoutFile = file;
+        return this;
+    }
+
+    /**
+     * Let the OS write the STDERR of the subprocess directly into the file,
+     * by ProcessBuilder.Redirect.to(file). No Java thread touches the data.
+     * The stderr() of the CompletedProcess copies all lines of the file into the heap;
+     * call CompletedProcess#stderrMapped() instead to read a large output through
+     * a memory-mapped view of the file.
+     * @param file to be created or overwritten
+     * @return the Subprocess object. for functional call chaining.
+     */
+    public Subprocess redirectStderr(File file) {
+        Objects.requireNonNull(file);
+        this.stderrFile = file;
+        return this;
+    }
+
+    /**
+     * Let the STDERR of the subprocess be merged into the STDOUT.
+     * Then the STDOUT is read by the calling thread, no other thread is involved.
+     * The stderr() of the CompletedProcess will be empty.
+     * @param redirectErrorStream true to merge the STDERR into the STDOUT
+     * @return the Subprocess object. for functional call chaining.
+     */
+    public Subprocess redirectErrorStream(boolean redirectErrorStream) {
+        processBuilder.redirectErrorStream(redirectErrorStream);
+        return this;
+    }
+
+    /**
+     * Change the ExecutorService that consumes the STDERR of the subprocess.
+     * As default, the ExecutorService shared by all Subprocess instances is used.
+     * @param executor an ExecutorService which you manage
+     * @return the Subprocess object. for functional call chaining.
+     */
+    public Subprocess executor(ExecutorService executor) {
+        Objects.requireNonNull(executor);
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * @return the ExecutorService set by executor(), or the shared default one
+     */
+    ExecutorService executor__() {
+        return (executor != null) ? executor : getDefaultExecutor();
+    }
+
+    /**
+     * Change how long to wait for a timed out subprocess to terminate after
+     * the soft termination, before it is killed forcibly.
+     * As default, will be set as DEFAULT_GRACE_PERIOD (5 seconds).
+     * @param gracePeriod e.g, Duration.ofSeconds(1)
+     * @return the Subprocess object. for functional call chaining.
+     */
+    public Subprocess gracePeriod(Duration gracePeriod) {
+        Objects.requireNonNull(gracePeriod);
+        if (gracePeriod.isNegative()) {
+            throw new IllegalArgumentException("gracePeriod must not be negative: " + gracePeriod);
+        }
+        this.gracePeriod = gracePeriod;
+        return this;
+    }
+
+    /**
+     * Let the OutputMultiplexer consume the STDOUT and the STDERR of the subprocess,
+     * instead of the calling thread and a thread of the ExecutorService.
+     * This is useful when you run thousands of subprocesses concurrently.
+     * @param multiplexer an OutputMultiplexer which you manage
+     * @return the Subprocess object. for functional call chaining.
+     */
+    public Subprocess multiplexer(OutputMultiplexer multiplexer) {
+        Objects.requireNonNull(multiplexer);
+        this.multiplexer = multiplexer;
+        return this;
+    }
+
+    /**
+     * Retain only the lines of the STDOUT which match the filter. The lines are tested
+     * as soon as they are read, so that the lines which do not match are never retained.
+     * The filter may destroy the subprocess after enough lines matched; see LineFilter.
+     * Not applicable with CapturePolicy.raw(), CapturePolicy.timeline() and redirectStdout().
+     * @param stdoutFilter e.g, LineFilter.containing(":80 (LISTEN)")
+     * @return the Subprocess object. for functional call chaining.
+     */
+    public Subprocess stdoutFilter(LineFilter stdoutFilter) {
+        Objects.requireNonNull(stdoutFilter);
+        this.stdoutFilter = stdoutFilter;
+        return this;
+    }
+
+    /**
+     * Let the SpawnServer start the subprocess, instead of forking this JVM.
+     * This is useful when the JVM has a large heap. The STDOUT and the STDERR
+     * are relayed through files, and are available after the subprocess exited.
+     * @param spawnServer a SpawnServer which you manage
+     * @return the Subprocess object. for functional call chaining.
+     */
+    public Subprocess spawnServer(SpawnServer spawnServer) {
+        Objects.requireNonNull(spawnServer);
+        this.spawnServer = spawnServer;
+        return this;
+    }
+
+    /**
+     * @return the ExecutorService shared by all Subprocess instances to consume
+     * the STDERR of subprocesses. A cached pool of daemon threads is created at the first call.
+     * On Java 21 and later, a virtual thread per task executor is created instead,
+     * unless the system property "subprocessj.virtualThreads" is set to "false".
+     */
+    public static ExecutorService getDefaultExecutor() {
+        ExecutorService result = defaultExecutor;
+        if (result == null) {
+            synchronized (Subprocess.class) {
+                result = defaultExecutor;
+                if (result == null) {
+                    result = GobblerExecutors.newDefault();
+                    defaultExecutor = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Swap the ExecutorService shared by all Subprocess instances.
+     * The previous one is not shut down; it is yours if you have set it.
+     * @param executor an ExecutorService
+     */
+    public static void setDefaultExecutor(ExecutorService executor) {
+        Objects.requireNonNull(executor);
+        synchronized (Subprocess.class) {
+            defaultExecutor = executor;
+        }
+    }
+
     /**
      * Run the command written as a List&lt;String&gt;.
      * Wait for the command to complete, then return a
@@ -123,7 +367,8 @@ public class Subprocess {
      * - the captured STDOUT of the subprocess
      * - the captured STDERR of the subproess
      *
-     * Referred to a Baeldung's article <a href="https://www.baeldung.com/java-executor-wait-for-threads">"Java Executor Wait for the Threads"</a>
+     * The STDOUT is consumed by the calling thread, the STDERR is consumed by
+     * a thread of the shared ExecutorService. No thread is created per invocation.
      *
      * @param command E.g Array.asList("ls", "-la", ".")
      * @return a Subprocess.CompletedProcess instance
@@ -132,6 +377,509 @@ public class Subprocess {
      */
     public CompletedProcess run(List<String> command)
             throws IOException, InterruptedException {
+        CompletedProcess cp = newCompletedProcess(command);
+        return run__(command, cp, null);
+    }
+
+    /**
+     * Run the command written as a List&lt;String&gt; with a timeout.
+     * If the subprocess does not finish within the timeout, it is asked
+     * to terminate softly (SIGTERM on Mac/Linux); if it is still alive
+     * after the grace period (see gracePeriod()), it is killed forcibly.
+     * The returned CompletedProcess is flagged as timedOut(), and contains
+     * the STDOUT and the STDERR captured until the subprocess was terminated.
+     *
+     * @param command E.g Array.asList("ls", "-la", ".")
+     * @param timeout how long to wait for the subprocess to finish
+     * @return a Subprocess.CompletedProcess instance
+     * @throws IOException when failed to start the subprocess
+     * @throws InterruptedException when the calling thread was interrupted while waiting
+     */
+    public CompletedProcess run(List<String> command, Duration timeout)
+            throws IOException, InterruptedException {
+        Objects.requireNonNull(timeout);
+        if (timeout.isNegative()) {
+            throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+        }
+        CompletedProcess cp = newCompletedProcess(command);
+        return run__(command, cp, timeout);
+    }
+
+    /**
+     * Run the command as run(command) or run(command, timeout) does, handing onStart
+     * an action which kills the subprocess forcibly, as soon as it is started. Used by
+     * BatchRunner to destroy the processes of an aborted batch; the thread blocked on
+     * reading the STDOUT can not be interrupted. Works with a SpawnServer as well.
+     */
+    CompletedProcess run(List<String> command, Duration timeout, Consumer<Runnable> onStart)
+            throws IOException, InterruptedException {
+        Objects.requireNonNull(onStart);
+        CompletedProcess cp = newCompletedProcess(command);
+        return run__(command, cp, timeout, onStart);
+    }
+
+    /**
+     * Run the command written as a List&lt;String&gt;, handing each line of
+     * the STDOUT and the STDERR to the given consumers as soon as it is read.
+     * The lines are NOT retained in the returned CompletedProcess; it carries
+     * the return code and the number of lines read from each stream only.
+     * If you want to keep some lines, let the consumer collect them.
+     *
+     * This enables you to process a huge output in constant memory, and to
+     * start processing from the first line before the subprocess exits.
+     *
+     * The stdoutConsumer and the stderrConsumer are called by 2 different threads
+     * concurrently; each of them receives the lines of its stream in order.
+     *
+     * @param command E.g Array.asList("ls", "-la", ".")
+     * @param stdoutConsumer will receive each line of the STDOUT
+     * @param stderrConsumer will receive each line of the STDERR
+     * @return a Subprocess.CompletedProcess instance with empty stdout() and stderr()
+     * @throws IOException when failed to create a Thread to consume STDOUT/STDERR from the subprocess
+     * @throws InterruptedException when a Thread that consumes STDOUT/STDERR from the subprocess was interrupted
+     */
+    public CompletedProcess run(List<String> command,
+                                Consumer<String> stdoutConsumer,
+                                Consumer<String> stderrConsumer)
+            throws IOException, InterruptedException {
+        Objects.requireNonNull(stdoutConsumer);
+        Objects.requireNonNull(stderrConsumer);
+        CompletedProcess cp = new CompletedProcess(command,
+                new LineCapture(capturePolicy, charset, stdoutConsumer, false, stdoutFilter),
+                new LineCapture(capturePolicy, charset, stderrConsumer, false));
+        return run__(command, cp, null);
+    }
+
+    /**
+     * Start the command written as a List&lt;String&gt; and return immediately.
+     * The returned future is completed with a CompletedProcess when the subprocess
+     * exited and both of the STDOUT and the STDERR are consumed.
+     *
+     * The streams are consumed by the OutputMultiplexer set by multiplexer(),
+     * or by the OutputMultiplexer shared by all Subprocess instances;
+     * no thread is blocked per subprocess.
+     * The future is completed by a thread of the OutputMultiplexer; use
+     * runAsync(command, executor) if you chain any heavy stage to it.
+     *
+     * Cancelling the future destroys the subprocess.
+     *
+     * @param command E.g Array.asList("ls", "-la", ".")
+     * @return a CompletableFuture of CompletedProcess. When failed to start the subprocess,
+     * it is completed exceptionally with the IOException.
+     */
+    public CompletableFuture<CompletedProcess> runAsync(List<String> command) {
+        return runAsync__(command, null);
+    }
+
+    /**
+     * Same as runAsync(command) except that the future is completed
+     * by the given executor.
+     *
+     * @param command E.g Array.asList("ls", "-la", ".")
+     * @param executor the Executor to complete the future by
+     * @return a CompletableFuture of CompletedProcess
+     */
+    public CompletableFuture<CompletedProcess> runAsync(List<String> command, Executor executor) {
+        Objects.requireNonNull(executor);
+        return runAsync__(command, executor);
+    }
+
+    /**
+     * Start the command written as a List&lt;String&gt; in background, and return immediately.
+     * The STDOUT and the STDERR are consumed by the OutputMultiplexer while it runs;
+     * you can read the lines captured so far by RunningProcess#stdout().
+     *
+     * @param command E.g Array.asList("java", "-jar", "server.jar")
+     * @return a RunningProcess, which you should stop() when you are done
+     * @throws IOException when failed to start the subprocess
+     */
+    public RunningProcess start(List<String> command) throws IOException {
+        return startInBackground__(command, null, null);
+    }
+
+    /**
+     * Start the command written as a List&lt;String&gt; in background, and return
+     * as soon as the readiness condition is met; e.g, a server is listening to a port.
+     * The STDOUT and the STDERR are consumed by the OutputMultiplexer while it runs.
+     *
+     * @param command E.g Array.asList("java", "-jar", "server.jar")
+     * @param readiness E.g Readiness.tcpPort(8080).deadline(Duration.ofSeconds(10))
+     * @return a RunningProcess, which you should stop() when you are done
+     * @throws IOException when failed to start the subprocess, or when the subprocess
+     * exited or was not ready within the deadline; then the subprocess has been stopped
+     * @throws InterruptedException when the calling thread was interrupted while waiting
+     */
+    public RunningProcess start(List<String> command, Readiness readiness)
+            throws IOException, InterruptedException {
+        Objects.requireNonNull(readiness);
+        CompletableFuture<Void> matched = new CompletableFuture<>();
+        RunningProcess running = startInBackground__(command, readiness, matched);
+        try {
+            readiness.await(running, matched);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            running.close();
+            throw e;
+        }
+        return running;
+    }
+
+    /**
+     * Execute the command written as a List&lt;String&gt;, and hand the STDOUT to the sink
+     * as chunks of bytes, without decoding. The STDERR is captured as lines according
+     * to the CapturePolicy, so that it can be read by CompletedProcess#stderr().
+     *
+     * @param command E.g Array.asList("pngquant", "-")
+     * @param stdout will receive the bytes of the STDOUT; E.g, ByteSink.toFile(Paths.get("out.png"))
+     * @return a CompletedProcess, of which stdout() is empty
+     * @throws IOException when failed to start the subprocess, or the sink failed
+     * @throws InterruptedException when the calling thread was interrupted
+     */
+    public CompletedProcess runBinary(List<String> command, ByteSink stdout)
+            throws IOException, InterruptedException {
+        return runBinary(command, stdout, null);
+    }
+
+    /**
+     * Execute the command written as a List&lt;String&gt;, and hand the STDOUT and the STDERR
+     * to the sinks as chunks of bytes, without decoding.
+     * The chunks are read by a pool of reused ByteBuffers; so no buffer is allocated per chunk.
+     *
+     * <p>If the bytes should go into a file as they are, redirectStdout() is faster still,
+     * as the subprocess writes into the file directly.</p>
+     *
+     * @param command E.g Array.asList("pngquant", "-")
+     * @param stdout will receive the bytes of the STDOUT
+     * @param stderr will receive the bytes of the STDERR; null to capture it as lines
+     * @return a CompletedProcess, of which stdout() is empty
+     * @throws IOException when failed to start the subprocess, or a sink failed
+     * @throws InterruptedException when the calling thread was interrupted
+     */
+    public CompletedProcess runBinary(List<String> command, ByteSink stdout, ByteSink stderr)
+            throws IOException, InterruptedException {
+        Objects.requireNonNull(stdout);
+        if (spawnServer != null) {
+            throw new IllegalStateException("runBinary() is not supported with a SpawnServer");
+        }
+        if (stdoutFile != null) {
+            throw new IllegalStateException("runBinary() is not applicable with redirectStdout()");
+        }
+        CompletedProcess cp = newCompletedProcess(command);
+        Process process = start__(command);
+        CompletableFuture<Void> stdinFuture = feedStdin(process);
+
+        // consume the STDERR by a thread of the shared executor
+        ExecutorService es = executor__();
+        Future<String> stderrFuture = null;
+        if (! processBuilder.redirectErrorStream() && stderrFile == null) {
+            stderrFuture = es.submit((stderr != null)
+                    ? new ByteGobbler(process.getErrorStream(), stderr)
+                    : new StreamGobbler(process.getErrorStream(), cp.stderrCapture()));
+        }
+
+        // consume the STDOUT by the calling thread
+        try {
+            new ByteGobbler(process.getInputStream(), stdout).call();
+            int returnCode = process.waitFor();
+            if (stderrFuture != null) {
+                await(stderrFuture);
+            }
+            await(stdinFuture);
+            cp.setReturnCode(returnCode);
+            return cp;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            process.destroyForcibly();
+            if (stderrFuture != null) {
+                awaitAtMost(stderrFuture, gracePeriod);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Start the command written as a List&lt;String&gt; and return its STDOUT as a lazily
+     * populated Stream, like java.nio.file.Files#lines(). The lines are read from the
+     * STDOUT when the Stream is consumed, so that limit(), filter().findFirst() and
+     * anyMatch() do not wait for the subprocess to finish.
+     * The STDERR is drained as raw bytes and discarded, unless redirectStderr() or
+     * redirectErrorStream() is specified. The CapturePolicy does not apply.
+     *
+     * <p>The returned Stream should be used in a try-with-resources statement.
+     * Closing the Stream destroys the subprocess if it is still running and reaps it.
+     * An IOException while reading is thrown as an UncheckedIOException; so is a failure
+     * to read the StdinSource, by close().</p>
+     *
+     * <PRE>
+     *     try (Stream&lt;String&gt; lines = new Subprocess().lines(Arrays.asList("ps", "-ef"))) {
+     *         Optional&lt;String&gt; found = lines.filter(s -&gt; s.contains("java")).findFirst();
+     *     }
+     * </PRE>
+     *
+     * @param command E.g Array.asList("ps", "-ef")
+     * @return the lines of the STDOUT
+     * @throws IOException when failed to start the subprocess
+     */
+    public Stream<String> lines(List<String> command) throws IOException {
+        if (spawnServer != null) {
+            throw new IllegalStateException("lines() is not supported with a SpawnServer");
+        }
+        if (stdoutFile != null) {
+            throw new IllegalStateException("lines() is not applicable with redirectStdout()");
+        }
+        Process process = start__(command);
+        CompletableFuture<Void> stdinFuture = feedStdin(process);
+        Future<String> stderrFuture = null;
+        if (! processBuilder.redirectErrorStream() && stderrFile == null) {
+            ExecutorService es = executor__();
+            stderrFuture = es.submit(new ByteGobbler(process.getErrorStream(), ByteSink.discard()));
+        }
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), charset));
+        Future<String> drain = stderrFuture;
+        return reader.lines().onClose(() -> close__(process, reader, stdinFuture, drain));
+    }
+
+    /**
+     * close the STDOUT, destroy the process if it is still running, and reap it.
+     * Stop feeding the STDIN and draining the STDERR.
+     * @throws UncheckedIOException if the StdinSource could not be read
+     */
+    private void close__(Process process, BufferedReader reader,
+                         CompletableFuture<Void> stdinFuture, Future<String> stderrFuture) {
+        try {
+            reader.close();
+        } catch (IOException ignore) {
+            // the process is destroyed anyway
+        }
+        try {
+            if (process.isAlive()) {
+                Processes.signalTerminate(process);
+                if (! process.waitFor(gracePeriod.toNanos(), TimeUnit.NANOSECONDS)) {
+                    process.destroyForcibly();
+                    process.waitFor();
+                }
+            } else {
+                process.waitFor();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        if (stderrFuture != null) {
+            // a grandchild process may hold the STDERR open
+            stderrFuture.cancel(true);
+            try {
+                process.getErrorStream().close();
+            } catch (IOException ignore) {
+                // nothing more to read
+            }
+        }
+        try {
+            // the writer ends soon, as the pipe is closed by now; a broken pipe is not a failure
+            stdinFuture.get(gracePeriod.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            stdinFuture.cancel(true);
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException(unwrap(e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Start the command for a DemandDrivenOutput. The STDOUT and the STDERR are read by
+     * threads of the executor, not by the OutputMultiplexer, because the thread reading
+     * the published stream blocks until the downstream requests more lines.
+     */
+    RunningProcess startDemandDriven(List<String> command, DemandDrivenOutput output)
+            throws IOException {
+        if (spawnServer != null) {
+            throw new IllegalStateException("a Publisher is not supported with a SpawnServer");
+        }
+        boolean stdout = (output.stream() == OutputEvent.Stream.STDOUT);
+        if (stdout ? stdoutFile != null : (stderrFile != null || processBuilder.redirectErrorStream())) {
+            throw new IllegalStateException("the published stream must not be redirected");
+        }
+        CompletedProcess cp = newCompletedProcess(command);
+        StreamSink published = new LineDecoder(charset, capturePolicy.maxLineLength(), output::emit);
+        Process process = start__(command);
+        CompletableFuture<Void> stdinFuture = feedStdin(process);
+        ExecutorService es = executor__();
+        CompletableFuture<Void> stdoutFuture = (stdoutFile != null)
+                ? CompletableFuture.completedFuture(null)
+                : gobble__(process.getInputStream(), stdout ? published : cp.stdoutCapture(), output, es);
+        CompletableFuture<Void> stderrFuture = (stderrFile != null || processBuilder.redirectErrorStream())
+                ? CompletableFuture.completedFuture(null)
+                : gobble__(process.getErrorStream(), stdout ? cp.stderrCapture() : published, output, es);
+        CompletableFuture<CompletedProcess> exit =
+                CompletableFuture.allOf(stdoutFuture, stderrFuture, stdinFuture)
+                        .thenCombine(ExitReaper.onExit(process), (v, returnCode) -> {
+                            cp.setReturnCode(returnCode);
+                            return cp;
+                        });
+        return new RunningProcess(process, cp, exit, gracePeriod);
+    }
+
+    /**
+     * read the stream by a thread of the executor; a cancelled DemandDrivenOutput stops reading
+     */
+    private static CompletableFuture<Void> gobble__(InputStream inputStream, StreamSink sink,
+                                                   DemandDrivenOutput output, ExecutorService es) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        es.execute(() -> {
+            try {
+                new StreamGobbler(inputStream, sink).gobble();
+                future.complete(null);
+            } catch (CancellationException e) {
+                future.complete(null);
+            } catch (IOException e) {
+                if (output.isStopped()) {
+                    // on Java 8, Process#destroy() closed the stream under this thread
+                    try {
+                        sink.close();
+                    } catch (RuntimeException ignore) {
+                        // the delivery has stopped anyway
+                    }
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(e);
+                }
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @param readiness may be null; if given, its output conditions complete the matched future
+     */
+    private RunningProcess startInBackground__(List<String> command, Readiness readiness,
+                                               CompletableFuture<Void> matched)
+            throws IOException {
+        if (spawnServer != null) {
+            throw new IllegalStateException("start() is not supported with a SpawnServer");
+        }
+        CompletedProcess cp = newCompletedProcess(command);
+        StreamSink stdoutSink = (readiness != null)
+                ? readiness.watch(OutputEvent.Stream.STDOUT, cp.stdoutCapture(), charset, matched)
+                : cp.stdoutCapture();
+        StreamSink stderrSink = (readiness != null)
+                ? readiness.watch(OutputEvent.Stream.STDERR, cp.stderrCapture(), charset, matched)
+                : cp.stderrCapture();
+        Process process = start__(command);
+        armStopper(cp, process);
+        CompletableFuture<Void> stdinFuture = feedStdin(process);
+        OutputMultiplexer m = (multiplexer != null) ? multiplexer : getDefaultMultiplexer();
+        CompletableFuture<CompletedProcess> exit =
+                m.register(process, stdoutSink, stderrSink)
+                        .thenCombine(stdinFuture, (returnCode, v) -> {
+                            cp.setReturnCode(returnCode);
+                            return cp;
+                        });
+        return new RunningProcess(process, cp, exit, gracePeriod);
+    }
+
+    private CompletableFuture<CompletedProcess> runAsync__(List<String> command, Executor executor) {
+        CompletedProcess cp = newCompletedProcess(command);
+        if (spawnServer != null) {
+            return runAsyncSpawned__(command, cp, executor);
+        }
+        Process process;
+        try {
+            process = start__(command);
+        } catch (IOException e) {
+            CompletableFuture<CompletedProcess> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        armStopper(cp, process);
+        CompletableFuture<Void> stdinFuture = feedStdin(process);
+        OutputMultiplexer m = (multiplexer != null) ? multiplexer : getDefaultMultiplexer();
+        CompletableFuture<Integer> exit =
+                m.register(process, cp.stdoutCapture(), cp.stderrCapture())
+                        .thenCombine(stdinFuture, (returnCode, v) -> returnCode);
+        CompletableFuture<CompletedProcess> result = new CompletableFuture<>();
+        exit.whenComplete((returnCode, throwable) -> {
+            Runnable completion = () -> {
+                if (throwable != null) {
+                    result.completeExceptionally(
+                            (throwable instanceof CompletionException && throwable.getCause() != null)
+                                    ? throwable.getCause() : throwable);
+                } else {
+                    cp.setReturnCode(returnCode);
+                    result.complete(cp);
+                }
+            };
+            if (executor != null) {
+                executor.execute(completion);
+            } else {
+                completion.run();
+            }
+        });
+        result.whenComplete((completed, throwable) -> {
+            if (result.isCancelled()) {
+                process.destroy();
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<CompletedProcess> runAsyncSpawned__(List<String> command,
+                                                                  CompletedProcess cp,
+                                                                  Executor executor) {
+        SpawnServer.Spawn spawn;
+        try {
+            spawn = spawn__(command, cp);
+        } catch (IOException | RuntimeException e) {
+            CompletableFuture<CompletedProcess> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        CompletableFuture<CompletedProcess> result = new CompletableFuture<>();
+        spawn.exit.whenComplete((returnCode, throwable) -> {
+            Runnable completion = () -> {
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    cp.setReturnCode(returnCode);
+                    result.complete(cp);
+                }
+            };
+            if (executor != null) {
+                executor.execute(completion);
+            } else {
+                completion.run();
+            }
+        });
+        result.whenComplete((completed, throwable) -> {
+            if (result.isCancelled()) {
+                getDefaultExecutor().execute(() -> {
+                    try {
+                        spawn.terminate(gracePeriod);
+                    } catch (IOException | InterruptedException ignore) {
+                        // nobody is waiting for the result
+                    }
+                });
+            }
+        });
+        return result;
+    }
+
+    private static OutputMultiplexer getDefaultMultiplexer() {
+        OutputMultiplexer result = defaultMultiplexer;
+        if (result == null) {
+            synchronized (Subprocess.class) {
+                result = defaultMultiplexer;
+                if (result == null) {
+                    result = new OutputMultiplexer(1);
+                    defaultMultiplexer = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void validate__(List<String> command) {
         Objects.requireNonNull(command);
         for (Object arg : command) {
             if (! (arg instanceof String)) {
@@ -141,48 +889,293 @@ public class Subprocess {
                 );
             }
         }
+    }
+
+    private Process start__(List<String> command) throws IOException {
+        if (! validated) {
+            validate__(command);
+        }
         processBuilder.directory(this.cwd);
         processBuilder.command(command);
-        Process process = processBuilder.start();
-        CompletedProcess cp = new CompletedProcess(command);
-
-        // https://www.baeldung.com/java-executor-wait-for-threads
-        ExecutorService threadPool = Executors.newFixedThreadPool(2);
-        List<Callable<String>> callables =
-                Arrays.asList(
-                        new StreamGobbler(
-                                process.getInputStream(),
-                                cp::appendStdout
-                        ),
-                        new StreamGobbler(
-                                process.getErrorStream(),
-                                cp::appendStderr
-                        )
-                );
+        if (stdin != null) {
+            stdin.acquire();
+        }
+        processBuilder.redirectInput(
+                (stdin != null) ? stdin.redirect() : ProcessBuilder.Redirect.PIPE);
+        processBuilder.redirectOutput(
+                (stdoutFile != null) ? ProcessBuilder.Redirect.to(stdoutFile) : ProcessBuilder.Redirect.PIPE);
+        processBuilder.redirectError(
+                (stderrFile != null) ? ProcessBuilder.Redirect.to(stderrFile) : ProcessBuilder.Redirect.PIPE);
+        try {
+            return processBuilder.start();
+        } catch (IOException | RuntimeException e) {
+            if (stdin != null) {
+                stdin.release();
+            }
+            throw e;
+        }
+    }
 
-        // start the threads to consume the stdout and stderr out of the subprocess
-        List<Future<String>> futures = threadPool.invokeAll(callables);
+    /**
+     * let the LineFilter of the STDOUT destroy the process when enough lines matched
+     */
+    private static void armStopper(CompletedProcess cp, Process process) {
+        if (cp.stdoutCapture() instanceof LineCapture) {
+            ((LineCapture)cp.stdoutCapture()).stopper(() -> Processes.signalTerminate(process));
+        }
+    }
 
-        // execute the subprocess
-        int returnCode = process.waitFor();
+    private CompletedProcess newCompletedProcess(List<String> command) {
+        OutputCapture[] captures = OutputCapture.createPair(capturePolicy, charset);
+        if (stdoutFilter != null) {
+            if (capturePolicy.isRaw() || capturePolicy.isTimeline() || stdoutFile != null) {
+                throw new IllegalStateException(
+                        "stdoutFilter is not applicable with " + capturePolicy +
+                                ((stdoutFile != null) ? " and redirectStdout()" : ""));
+            }
+            captures[0] = new LineCapture(capturePolicy, charset, null, true, stdoutFilter);
+        }
+        return new CompletedProcess(command,
+                (stdoutFile != null)
+                        ? new FileCapture(stdoutFile, charset) : captures[0],
+                (stderrFile != null && ! processBuilder.redirectErrorStream())
+                        ? new FileCapture(stderrFile, charset) : captures[1]);
+    }
 
-        // wait for the threads to finish
-        awaitTerminationAfterShutdown(threadPool);
+    /**
+     * Start writing the StdinSource into the STDIN of the process by a thread of the executor.
+     * @return a future completed when the STDIN is closed
+     */
+    private CompletableFuture<Void> feedStdin(Process process) {
+        if (stdin == null || ! stdin.needsWriter()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final StdinSource source = stdin;
+        ExecutorService es = executor__();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        es.execute(() -> {
+            try {
+                source.writeTo(process.getOutputStream());
+                future.complete(null);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
 
-        // now we are surely done
-        cp.setReturnCode(returnCode);
-        return cp;
+    private CompletedProcess run__(List<String> command, CompletedProcess cp, Duration timeout)
+            throws IOException, InterruptedException {
+        return run__(command, cp, timeout, null);
     }
 
-    private static void awaitTerminationAfterShutdown(ExecutorService threadPool) {
-        threadPool.shutdown();
+    private CompletedProcess run__(List<String> command, CompletedProcess cp, Duration timeout,
+                                   Consumer<Runnable> onStart)
+            throws IOException, InterruptedException {
+        if (spawnServer != null) {
+            return runSpawned__(command, cp, timeout, onStart);
+        }
+        Process process = start__(command);
+        if (onStart != null) {
+            onStart.accept(process::destroyForcibly);
+        }
+        armStopper(cp, process);
+        CompletableFuture<Void> stdinFuture = feedStdin(process);
+
+        if (multiplexer != null) {
+            CompletableFuture<Integer> exit =
+                    multiplexer.register(process, cp.stdoutCapture(), cp.stderrCapture());
+            try {
+                if (timeout == null) {
+                    cp.setReturnCode(exit.get());
+                    await(stdinFuture);
+                } else {
+                    try {
+                        cp.setReturnCode(exit.get(timeout.toNanos(), TimeUnit.NANOSECONDS));
+                        await(stdinFuture);
+                    } catch (TimeoutException e) {
+                        cp.setTimedOut(true);
+                        cp.setReturnCode(terminate(process));
+                        // let the multiplexer drain what is left in the pipes
+                        try {
+                            exit.get(gracePeriod.toNanos(), TimeUnit.NANOSECONDS);
+                        } catch (TimeoutException ignore) {
+                            // some grandchild process may hold the pipes open
+                        }
+                    }
+                }
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            } catch (InterruptedException e) {
+                process.destroy();
+                throw e;
+            }
+            return cp;
+        }
+
+        // consume the STDERR by a thread of the shared executor
+        ExecutorService es = executor__();
+        Future<String> stderrFuture = null;
+        if (! processBuilder.redirectErrorStream() && stderrFile == null) {
+            stderrFuture = es.submit(new StreamGobbler(process.getErrorStream(), cp.stderrCapture()));
+        }
+
         try {
-            if (!threadPool.awaitTermination(60, TimeUnit.SECONDS)) {
-                threadPool.shutdownNow();
+            if (timeout == null) {
+                // consume the STDOUT by the calling thread
+                new StreamGobbler(process.getInputStream(), cp.stdoutCapture()).gobble();
+
+                // execute the subprocess
+                int returnCode = process.waitFor();
+
+                // wait for the STDERR to be consumed
+                if (stderrFuture != null) {
+                    awaitStderr__(cp, stderrFuture);
+                }
+                await(stdinFuture);
+
+                // now we are surely done
+                cp.setReturnCode(returnCode);
+                return cp;
+            } else {
+                // the calling thread watches the clock while the STDOUT is consumed by another thread
+                Future<String> stdoutFuture =
+                        es.submit(new StreamGobbler(process.getInputStream(), cp.stdoutCapture()));
+                if (process.waitFor(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                    await(stdoutFuture);
+                    if (stderrFuture != null) {
+                        awaitStderr__(cp, stderrFuture);
+                    }
+                    await(stdinFuture);
+                    cp.setReturnCode(process.exitValue());
+                } else {
+                    cp.setTimedOut(true);
+                    cp.setReturnCode(terminate(process));
+                    // the gobblers will reach the end of the streams soon,
+                    // unless some grandchild process holds the pipes open
+                    awaitAtMost(stdoutFuture, gracePeriod);
+                    if (stderrFuture != null) {
+                        awaitAtMost(stderrFuture, gracePeriod);
+                    }
+                }
+                return cp;
             }
-        } catch (InterruptedException ex) {
-            threadPool.shutdownNow();
-            Thread.currentThread().interrupt();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // a Consumer or the decoder failed; do not leave the subprocess blocked on a full pipe
+            process.destroyForcibly();
+            if (stderrFuture != null) {
+                awaitAtMost(stderrFuture, gracePeriod);
+            }
+            throw e;
+        }
+    }
+
+    private SpawnServer.Spawn spawn__(List<String> command, CompletedProcess cp) throws IOException {
+        validate__(command);
+        File stdinFile = null;
+        if (stdin != null) {
+            if (stdin.needsWriter()) {
+                throw new IllegalStateException(
+                        "SpawnServer supports StdinSource.fromPath() only");
+            }
+            stdinFile = stdin.redirect().file();
+        }
+        return spawnServer.spawn(command, cwd, environment(),
+                stdinFile, stdoutFile, stderrFile, processBuilder.redirectErrorStream(),
+                cp.stdoutCapture(), cp.stderrCapture());
+    }
+
+    private CompletedProcess runSpawned__(List<String> command, CompletedProcess cp, Duration timeout,
+                                          Consumer<Runnable> onStart)
+            throws IOException, InterruptedException {
+        SpawnServer.Spawn spawn = spawn__(command, cp);
+        if (onStart != null) {
+            onStart.accept(spawn::kill);
+        }
+        try {
+            if (timeout == null) {
+                cp.setReturnCode(spawn.exit.get());
+            } else {
+                try {
+                    cp.setReturnCode(spawn.exit.get(timeout.toNanos(), TimeUnit.NANOSECONDS));
+                } catch (TimeoutException e) {
+                    cp.setTimedOut(true);
+                    cp.setReturnCode(spawn.terminate(gracePeriod));
+                }
+            }
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            try {
+                spawn.terminate(Duration.ZERO);
+            } catch (IOException ex) {
+                e.addSuppressed(ex);
+            }
+            throw e;
+        }
+        return cp;
+    }
+
+    /**
+     * Terminate the process softly, then forcibly after the grace period.
+     * @return the return code of the terminated process
+     */
+    private int terminate(Process process) throws InterruptedException {
+        process.destroy();
+        if (! process.waitFor(gracePeriod.toNanos(), TimeUnit.NANOSECONDS)) {
+            process.destroyForcibly();
+            process.waitFor();
+        }
+        return process.exitValue();
+    }
+
+    /**
+     * wait for the STDERR to be consumed. On Java 8, Process#destroy() closes the STDERR under
+     * the reading thread after a LineFilter stopped the subprocess; what was read is kept then.
+     */
+    private void awaitStderr__(CompletedProcess cp, Future<?> stderrFuture)
+            throws IOException, InterruptedException {
+        if (cp.stoppedEarly()) {
+            awaitAtMost(stderrFuture, gracePeriod);
+        } else {
+            await(stderrFuture);
+        }
+    }
+
+    private static void awaitAtMost(Future<?> future, Duration duration) throws InterruptedException {
+        try {
+            future.get(duration.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            // the partial output captured so far is returned anyway
+        } catch (TimeoutException e) {
+            future.cancel(true);
+        }
+    }
+
+    static void await(Future<?> future) throws IOException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * @return the IOException to be thrown for the cause of the ExecutionException;
+     * an UncheckedIOException is unwrapped, a RuntimeException or an Error is thrown as is
+     */
+    static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException)cause;
+        } else if (cause instanceof UncheckedIOException) {
+            return ((UncheckedIOException)cause).getCause();
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+        } else if (cause instanceof Error) {
+            throw (Error)cause;
+        } else {
+            return new IOException(cause);
         }
     }
 
@@ -194,30 +1187,54 @@ public class Subprocess {
 
         public static CompletedProcess NULL_OBJECT = new CompletedProcess(new ArrayList<String>());
 
+        private static final int NOT_COMPLETED = -999;
+
         private final List<String> args;
         private int returncode;
-        private final List<String> stdout;
-        private final List<String> stderr;
+        private boolean timedOut;
+        private final OutputCapture stdout;
+        private final OutputCapture stderr;
+        private List<String> stdoutLines;
+        private List<String> stderrLines;
 
         public CompletedProcess(List<String> args) {
+            this(args, CapturePolicy.unlimited());
+        }
+
+        public CompletedProcess(List<String> args, CapturePolicy capturePolicy) {
+            this(args, OutputCapture.createPair(capturePolicy, Charset.defaultCharset()));
+        }
+
+        private CompletedProcess(List<String> args, OutputCapture[] captures) {
+            this(args, captures[0], captures[1]);
+        }
+
+        CompletedProcess(List<String> args, OutputCapture stdout, OutputCapture stderr) {
             this.args = args;
-            this.returncode = -999;
-            this.stdout = new ArrayList<>();
-            this.stderr = new ArrayList<>();
+            this.returncode = NOT_COMPLETED;
+            this.timedOut = false;
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.stdoutLines = null;
+            this.stderrLines = null;
         }
 
-        void appendStdout(String line) {
-            stdout.add(line);
+        OutputCapture stdoutCapture() {
+            return stdout;
         }
 
-        void appendStderr(String line) {
-            stderr.add(line);
+        OutputCapture stderrCapture() {
+            return stderr;
         }
 
-        void setReturnCode(int v) {
+        synchronized void setReturnCode(int v) {
             this.returncode = v;
         }
 
+        void setTimedOut(boolean timedOut) {
+            this.timedOut = timedOut;
+        }
+
         public String commandline() {
             StringBuilder sb = new StringBuilder();
             int count = 0;
@@ -240,17 +1257,153 @@ public class Subprocess {
         }
 
         /**
-         * @return captured STDOUT from the subprocess.
+         * @return true if the subprocess did not finish within the timeout and
+         * therefore was terminated. The stdout() and the stderr() contain
+         * the lines captured until then.
+         */
+        public boolean timedOut() {
+            return this.timedOut;
+        }
+
+        /**
+         * @return true if the subprocess was destroyed by the LineFilter set by
+         * Subprocess#stdoutFilter() after enough lines matched
+         */
+        public boolean stoppedEarly() {
+            return this.stdout.stopped();
+        }
+
+        /**
+         * @return captured STDOUT from the subprocess; a mutable List, which is
+         * copied out of the capture once, when first called after the subprocess completed.
+         */
+        public synchronized List<String> stdout() {
+            if (stdoutLines != null) {
+                return stdoutLines;
+            }
+            List<String> lines = new ArrayList<>(this.stdout.lines());
+            if (returncode != NOT_COMPLETED) {
+                stdoutLines = lines;
+            }
+            return lines;
+        }
+
+        /**
+         * @return captured STDERR from the subprocess; a mutable List, which is
+         * copied out of the capture once, when first called after the subprocess completed.
+         */
+        public synchronized List<String> stderr() {
+            if (stderrLines != null) {
+                return stderrLines;
+            }
+            List<String> lines = new ArrayList<>(this.stderr.lines());
+            if (returncode != NOT_COMPLETED) {
+                stderrLines = lines;
+            }
+            return lines;
+        }
+
+        /**
+         * @return the number of lines read from the STDOUT of the subprocess,
+         * including the lines that were not retained in stdout().
+         */
+        public long stdoutLineCount() {
+            return this.stdout.lineCount();
+        }
+
+        /**
+         * @return the number of lines read from the STDERR of the subprocess,
+         * including the lines that were not retained in stderr().
+         */
+        public long stderrLineCount() {
+            return this.stderr.lineCount();
+        }
+
+        /**
+         * The mapping is created at the first call and shared by later calls. It is not
+         * unmapped explicitly; the OS releases it when the MappedLines is garbage-collected.
+         * @return a memory-mapped, line-indexed view of the file into which the STDOUT was redirected
+         * @throws IllegalStateException unless the subprocess ran with Subprocess#redirectStdout(file)
+         * @throws java.io.UncheckedIOException if failed to map the file
+         */
+        public MappedLines stdoutMapped() {
+            return mapped(this.stdout, "STDOUT");
+        }
+
+        /**
+         * The mapping is created at the first call and shared by later calls. It is not
+         * unmapped explicitly; the OS releases it when the MappedLines is garbage-collected.
+         * @return a memory-mapped, line-indexed view of the file into which the STDERR was redirected
+         * @throws IllegalStateException unless the subprocess ran with Subprocess#redirectStderr(file)
+         * @throws java.io.UncheckedIOException if failed to map the file
+         */
+        public MappedLines stderrMapped() {
+            return mapped(this.stderr, "STDERR");
+        }
+
+        private static MappedLines mapped(OutputCapture capture, String name) {
+            if (capture instanceof FileCapture) {
+                return ((FileCapture)capture).mapped();
+            } else {
+                throw new IllegalStateException(name + " was not redirected to a file");
+            }
+        }
+
+        /**
+         * @return a copy of the raw bytes of the STDOUT from the subprocess.
+         * @throws IllegalStateException unless the subprocess ran with CapturePolicy.raw()
+         * or the STDOUT was redirected to a file
+         */
+        public byte[] stdoutBytes() {
+            return this.stdout.bytes();
+        }
+
+        /**
+         * @return a copy of the raw bytes of the STDERR from the subprocess.
+         * @throws IllegalStateException unless the subprocess ran with CapturePolicy.raw()
+         * or the STDERR was redirected to a file
+         */
+        public byte[] stderrBytes() {
+            return this.stderr.bytes();
+        }
+
+        /**
+         * @return the lines of the STDOUT and the STDERR in the order they were read,
+         * each with the stream, the time offset from the start and the size in bytes
+         * @throws IllegalStateException if not captured with CapturePolicy.timeline()
+         */
+        public List<OutputEvent> timeline() {
+            return (this.stdout instanceof TimelineCapture) ? this.stdout.events() : this.stderr.events();
+        }
+
+        /**
+         * @return the number of lines of the STDOUT which were dropped
+         * according to the CapturePolicy. 0 if all lines are retained.
+         */
+        public long stdoutDroppedLines() {
+            return this.stdout.droppedLines();
+        }
+
+        /**
+         * @return the number of chars in the lines of the STDOUT which were dropped
+         */
+        public long stdoutDroppedChars() {
+            return this.stdout.droppedChars();
+        }
+
+        /**
+         * @return the number of lines of the STDERR which were dropped
+         * according to the CapturePolicy. 0 if all lines are retained.
          */
-        public List<String> stdout() {
-            return this.stdout;
+        public long stderrDroppedLines() {
+            return this.stderr.droppedLines();
         }
 
         /**
-         * @return captured STDERR from the subprocess.
+         * @return the number of chars in the lines of the STDERR which were dropped
          */
-        public List<String> stderr() {
-            return this.stderr;
+        public long stderrDroppedChars() {
+            return this.stderr.droppedChars();
         }
 
 
@@ -258,7 +1411,13 @@ public class Subprocess {
         public String toString() {
             StringWriter sw = new StringWriter();
             PrintWriter pw = new PrintWriter(new BufferedWriter(sw));
-            pw.println(String.format("<completed-process rc=\"%d\">", this.returncode()));
+            if (this.timedOut()) {
+                pw.println(String.format("<completed-process rc=\"%d\" timedout=\"true\">", this.returncode()));
+            } else if (this.stoppedEarly()) {
+                pw.println(String.format("<completed-process rc=\"%d\" stopped=\"true\">", this.returncode()));
+            } else {
+                pw.println(String.format("<completed-process rc=\"%d\">", this.returncode()));
+            }
             pw.print("<command>");
             pw.print(commandline());
             pw.println("</command>");
@@ -285,6 +1444,11 @@ public class Subprocess {
             }
             pw.println("</stderr>");
             //
+            if (this.stdoutDroppedLines() > 0 || this.stderrDroppedLines() > 0) {
+                pw.println(String.format("<dropped stdout=\"%d\" stderr=\"%d\"/>",
+                        this.stdoutDroppedLines(), this.stderrDroppedLines()));
+            }
+            //
             pw.println("</completed-process>");
             pw.flush();
             pw.close();
@@ -318,23 +1482,74 @@ public class Subprocess {
     }
 
     /**
-     *
+     * Reads an InputStream (STDOUT or STDERR of a subprocess) until the end,
+     * hands each line to the consumer.
      */
     public static final class StreamGobbler implements Callable<String> {
         private final InputStream inputStream;
-        private final Consumer<String> consumer;
+        private final StreamSink sink;
 
         public StreamGobbler(InputStream inputStream,
                              Consumer<String> consumer) {
+            this(inputStream, consumer, CapturePolicy.UNLIMITED);
+        }
+
+        /**
+         * @param inputStream STDOUT or STDERR of a subprocess
+         * @param consumer will receive each line
+         * @param maxLineLength a line longer than this will be split; CapturePolicy.UNLIMITED not to split
+         */
+        public StreamGobbler(InputStream inputStream,
+                             Consumer<String> consumer,
+                             int maxLineLength) {
+            this(inputStream, new LineDecoder(Charset.defaultCharset(), maxLineLength, consumer));
+        }
+
+        /**
+         * @param inputStream STDOUT or STDERR of a subprocess
+         * @param consumer will receive the lines which match the filter
+         * @param filter tested on each line as soon as it is read. When the filter reached its
+         *               maxMatches, the rest of the stream is drained and discarded.
+         */
+        public StreamGobbler(InputStream inputStream,
+                             Consumer<String> consumer,
+                             LineFilter filter) {
+            this(inputStream, new LineCapture(CapturePolicy.unlimited(), Charset.defaultCharset(),
+                    consumer, false, Objects.requireNonNull(filter)));
+        }
+
+        StreamGobbler(InputStream inputStream, StreamSink sink) {
             this.inputStream = inputStream;
-            this.consumer = consumer;
+            this.sink = sink;
         }
 
+        /**
+         * @throws UncheckedIOException if reading the stream failed
+         */
         @Override
         public String call() {
-            new BufferedReader(new InputStreamReader(inputStream)).lines().forEach(consumer);
+            try {
+                return gobble();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        String gobble() throws IOException {
+            byte[] buffer = new byte[8192];
+            int n;
+            try {
+                while ((n = inputStream.read(buffer)) != -1) {
+                    sink.write(buffer, 0, n);
+                }
+            } catch (IOException e) {
+                // the stream may be closed by Process#destroy() after a LineFilter stopped it
+                if (! (sink instanceof OutputCapture && ((OutputCapture)sink).stopped())) {
+                    throw e;
+                }
+            }
+            sink.close();
             return "done";
         }
     }
 }
-
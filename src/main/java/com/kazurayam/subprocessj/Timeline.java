@@ -0,0 +1,79 @@
+package com.kazurayam.subprocessj;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The event log shared by the captures of the STDOUT and the STDERR of a subprocess.
+ * The events are appended by 2 threads concurrently, one at a time.
+ * A bounded CapturePolicy retains the first headLines events and the last tailLines
+ * events of both streams, as LineBuffer does for the lines of a stream.
+ */
+final class Timeline {
+
+    private final long origin;
+    private final CapturePolicy policy;
+    private final AppendOnlyList<OutputEvent> head;
+    private final OutputEvent[] tail;
+    private int tailNext;
+    private int tailSize;
+    private long droppedEvents;
+
+    Timeline(CapturePolicy policy) {
+        this.origin = System.nanoTime();
+        this.policy = policy;
+        this.head = new AppendOnlyList<>();
+        this.tail = new OutputEvent[policy.isBounded() ? policy.tailLines() : 0];
+        this.tailNext = 0;
+        this.tailSize = 0;
+        this.droppedEvents = 0;
+    }
+
+    void add(OutputEvent.Stream stream, int byteSize, String line) {
+        synchronized (head) {
+            long offset = System.nanoTime() - origin;
+            OutputEvent event = new OutputEvent(stream, offset, byteSize, line);
+            if (! policy.isBounded() || head.size() < policy.headLines()) {
+                head.add(event);
+            } else if (tail.length == 0) {
+                droppedEvents += 1;
+            } else {
+                if (tailSize == tail.length) {
+                    droppedEvents += 1;
+                } else {
+                    tailSize += 1;
+                }
+                tail[tailNext] = event;
+                tailNext = (tailNext + 1) % tail.length;
+            }
+        }
+    }
+
+    /**
+     * @return the events recorded so far; the head events are a read-only view, not copied
+     */
+    List<OutputEvent> events() {
+        synchronized (head) {
+            List<OutputEvent> headEvents = head.snapshot();
+            if (tailSize == 0) {
+                return headEvents;
+            }
+            List<OutputEvent> result = new ArrayList<>(headEvents.size() + tailSize);
+            result.addAll(headEvents);
+            int start = (tailSize == tail.length) ? tailNext : 0;
+            for (int i = 0; i < tailSize; i++) {
+                result.add(tail[(start + i) % tail.length]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return the number of the events between the head and the tail which were not retained
+     */
+    long droppedEvents() {
+        synchronized (head) {
+            return droppedEvents;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.kazurayam.subprocessj;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Decodes a stream into lines and records them into a Timeline shared with the other stream.
+ * With an unbounded policy lines() picks the lines of this stream out of the timeline.
+ * A bounded timeline may have dropped lines which the per-stream head and tail of
+ * headTail() would retain, so a bounded policy keeps references to the same Strings
+ * in a LineBuffer as well.
+ */
+final class TimelineCapture extends OutputCapture {
+
+    private final Timeline timeline;
+    private final OutputEvent.Stream stream;
+    private final LineDecoder decoder;
+    private final LineBuffer buffer;
+    private long lineCount;
+
+    TimelineCapture(Timeline timeline, OutputEvent.Stream stream, CapturePolicy policy, Charset charset) {
+        this.timeline = timeline;
+        this.stream = stream;
+        this.decoder = LineDecoder.counting(charset, policy.maxLineLength(), this::accept);
+        this.buffer = policy.isBounded() ? new LineBuffer(policy) : null;
+        this.lineCount = 0;
+    }
+
+    private void accept(String line, int byteSize) {
+        lineCount += 1;
+        if (buffer != null) {
+            buffer.add(line);
+        }
+        timeline.add(stream, byteSize, line);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        decoder.write(bytes, offset, length);
+    }
+
+    @Override
+    public void close() {
+        decoder.close();
+    }
+
+    @Override
+    List<String> lines() {
+        if (buffer != null) {
+            return buffer.lines();
+        }
+        return timeline.events().stream()
+                .filter(e -> e.stream() == stream)
+                .map(OutputEvent::line)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    boolean supportsSnapshot() {
+        return true;
+    }
+
+    @Override
+    long lineCount() {
+        return lineCount;
+    }
+
+    @Override
+    long droppedLines() {
+        return (buffer != null) ? buffer.droppedLines() : 0;
+    }
+
+    @Override
+    long droppedChars() {
+        return (buffer != null) ? buffer.droppedChars() : 0;
+    }
+
+    @Override
+    List<OutputEvent> events() {
+        return timeline.events();
+    }
+}
@@ -0,0 +1,33 @@
+package com.kazurayam.subprocessj;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the ExecutorService that Subprocess shares to consume
+ * the STDOUT/STDERR of subprocesses.
+ *
+ * This is the variant for Java 21 and later, packaged in META-INF/versions/21
+ * of the Multi-Release JAR. The gobblers run on virtual threads, so that
+ * a blocking read costs almost nothing. Set the system property
+ * "subprocessj.virtualThreads" to "false" to use platform threads as on Java 8.
+ */
+final class GobblerExecutors {
+
+    static final String VIRTUAL_THREADS_PROPERTY = "subprocessj.virtualThreads";
+
+    private GobblerExecutors() {}
+
+    /**
+     * @return a new ExecutorService which starts a virtual thread per task,
+     * or a cached thread pool of daemon threads if virtual threads are switched off
+     */
+    static ExecutorService newDefault() {
+        if (Boolean.parseBoolean(System.getProperty(VIRTUAL_THREADS_PROPERTY, "true"))) {
+            return Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("subprocessj-gobbler-", 1).factory());
+        } else {
+            return Executors.newCachedThreadPool(new DaemonThreadFactory("subprocessj-gobbler-"));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.kazurayam.subprocessj;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ExitReaper completes a future per process when the process exits;
+ * instead of a thread per process blocked in Process#waitFor().
+ *
+ * This is the variant for Java 9 and later, packaged in META-INF/versions/9
+ * of the Multi-Release JAR, which relies on Process#onExit(); the JDK already
+ * watches every child process for its own bookkeeping, so no polling is needed.
+ */
+final class ExitReaper {
+
+    private ExitReaper() {}
+
+    /**
+     * @param process a Process started
+     * @return a future completed with the exit value when the process exited
+     */
+    static CompletableFuture<Integer> onExit(Process process) {
+        return process.onExit().thenApply(Process::exitValue);
+    }
+}
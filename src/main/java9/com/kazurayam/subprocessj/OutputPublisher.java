@@ -0,0 +1,125 @@
+package com.kazurayam.subprocessj;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+
+/**
+ * OutputPublisher publishes the lines of the STDOUT (or the STDERR) of a subprocess
+ * as a java.util.concurrent.Flow.Publisher, with backpressure: the stream is read
+ * only as far as the Subscriber requested. While the demand is zero, the subprocess
+ * is throttled by the full OS pipe buffer, so the memory does not grow however slow
+ * the Subscriber is.
+ *
+ * <PRE>
+ *     OutputPublisher publisher = OutputPublisher.stdout(new Subprocess(),
+ *             Arrays.asList("cat", "huge.log"));
+ *     publisher.subscribe(subscriber);            // the command starts here
+ *     int rc = publisher.onExit().get().returncode();
+ * </PRE>
+ *
+ * <p>The command runs once, when the first Subscriber subscribes; a second Subscriber
+ * is signalled onError. The other stream is captured into the CompletedProcess by the
+ * CapturePolicy of the Subprocess. Cancelling the Subscription stops the subprocess.
+ * onComplete is signalled when the subprocess exited, whatever its return code is.</p>
+ *
+ * <p>This class is available on Java 9 and later; it is packaged in META-INF/versions/9
+ * of the Multi-Release JAR.</p>
+ */
+public final class OutputPublisher implements Flow.Publisher<String> {
+
+    private final Subprocess subprocess;
+    private final List<String> command;
+    private final OutputEvent.Stream stream;
+    private final AtomicBoolean subscribed;
+    private final CompletableFuture<CompletedProcess> exit;
+
+    private OutputPublisher(Subprocess subprocess, List<String> command, OutputEvent.Stream stream) {
+        this.subprocess = Objects.requireNonNull(subprocess);
+        this.command = Objects.requireNonNull(command);
+        this.stream = stream;
+        this.subscribed = new AtomicBoolean(false);
+        this.exit = new CompletableFuture<>();
+    }
+
+    /**
+     * @param subprocess configured with the cwd, the environment, the CapturePolicy, etc
+     * @param command E.g Array.asList("cat", "huge.log")
+     * @return a Publisher of the lines of the STDOUT
+     */
+    public static OutputPublisher stdout(Subprocess subprocess, List<String> command) {
+        return new OutputPublisher(subprocess, command, OutputEvent.Stream.STDOUT);
+    }
+
+    /**
+     * @param subprocess configured with the cwd, the environment, the CapturePolicy, etc
+     * @param command E.g Array.asList("ffmpeg", "-i", "in.mp4", "out.webm")
+     * @return a Publisher of the lines of the STDERR
+     */
+    public static OutputPublisher stderr(Subprocess subprocess, List<String> command) {
+        return new OutputPublisher(subprocess, command, OutputEvent.Stream.STDERR);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (! subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {}
+                @Override
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException(
+                    "already subscribed; an OutputPublisher runs the command once"));
+            return;
+        }
+        DemandDrivenOutput output = new DemandDrivenOutput(subprocess, command, stream,
+                new DemandDrivenOutput.Downstream() {
+                    @Override
+                    public void onNext(String line) {
+                        subscriber.onNext(line);
+                    }
+                    @Override
+                    public void onError(Throwable throwable) {
+                        subscriber.onError(throwable);
+                    }
+                    @Override
+                    public void onComplete() {
+                        subscriber.onComplete();
+                    }
+                });
+        output.onExit().whenComplete((cp, throwable) -> {
+            if (throwable == null) {
+                exit.complete(cp);
+            } else {
+                exit.completeExceptionally(throwable);
+            }
+        });
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                output.request(n);
+            }
+            @Override
+            public void cancel() {
+                output.cancel();
+            }
+        });
+        output.start();
+    }
+
+    /**
+     * @return a future completed with the CompletedProcess when the subprocess exited
+     * and its output was consumed. The lines of the published stream went to the
+     * Subscriber only, so the CompletedProcess captures none of them: its stdout()
+     * (or stderr()) is always empty, and stdoutLineCount() (or stderrLineCount()) is 0.
+     */
+    public CompletableFuture<CompletedProcess> onExit() {
+        return exit;
+    }
+}
@@ -0,0 +1,38 @@
+package com.kazurayam.subprocessj;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Starts the processes of a Pipeline, connecting the STDOUT of each stage
+ * to the STDIN of the next stage.
+ *
+ * This is the variant for Java 9 and later, packaged in META-INF/versions/9
+ * of the Multi-Release JAR. ProcessBuilder.startPipeline() connects the stages
+ * by OS pipes, so the bytes flow between the stages without passing through the JVM.
+ */
+final class PipelineStarter {
+
+    private PipelineStarter() {}
+
+    /**
+     * @param builders ProcessBuilders of the stages; the STDIN of the first stage
+     *                 and the STDOUT of the last stage are left as configured
+     * @param executor not used
+     * @return the started processes
+     */
+    static List<Process> start(List<ProcessBuilder> builders, ExecutorService executor)
+            throws IOException {
+        for (int i = 0; i < builders.size(); i++) {
+            ProcessBuilder pb = builders.get(i);
+            if (i > 0) {
+                pb.redirectInput(ProcessBuilder.Redirect.PIPE);
+            }
+            if (i < builders.size() - 1) {
+                pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
+            }
+        }
+        return ProcessBuilder.startPipeline(builders);
+    }
+}
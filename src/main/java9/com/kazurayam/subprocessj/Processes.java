@@ -0,0 +1,56 @@
+package com.kazurayam.subprocessj;
+
+import java.util.Arrays;
+
+/**
+ * Utilities on java.lang.Process.
+ *
+ * This is the variant for Java 9 and later, packaged in META-INF/versions/9
+ * of the Multi-Release JAR, which uses ProcessHandle.
+ */
+final class Processes {
+
+    private Processes() {}
+
+    /**
+     * @return the pid of the process, or -1 if not known
+     */
+    static long pid(Process process) {
+        try {
+            return process.pid();
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Ask the process to terminate (SIGTERM on Mac and Linux) without closing
+     * the streams of the process, so that the threads reading the STDOUT and
+     * the STDERR reach the end of the streams as usual.
+     * Process#destroy() closes the streams while they are read.
+     */
+    static void signalTerminate(Process process) {
+        if (! process.toHandle().destroy()) {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Kill the process and all of its descendants forcibly.
+     */
+    static void destroyTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    /**
+     * @return true if a child process having the argument on its command line is running
+     */
+    static boolean isChildRunning(String argument) {
+        return ProcessHandle.current().children()
+                .filter(ProcessHandle::isAlive)
+                .anyMatch(h -> h.info().arguments()
+                        .map(args -> Arrays.asList(args).contains(argument))
+                        .orElse(false));
+    }
+}
@@ -0,0 +1,73 @@
+package com.kazurayam.subprocessj;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.kazurayam.subprocessj.BatchRunner.BatchResult;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchRunnerTest {
+
+    @Test
+    public void test_runAll_in_input_order() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            BatchRunner batch = new BatchRunner(4);
+            for (int i = 0; i < 8; i++) {
+                // the earlier commands take longer
+                batch.add(Arrays.asList("sh", "-c", "sleep 0." + (8 - i) + "; echo " + i));
+            }
+            List<BatchResult> results = batch.runAll();
+            assertEquals(8, results.size());
+            for (int i = 0; i < 8; i++) {
+                assertEquals(i, results.get(i).index());
+                assertEquals(0, results.get(i).returncode());
+                assertEquals(String.valueOf(i), results.get(i).completedProcess().stdout().get(0));
+                assertTrue(results.get(i).elapsed().toMillis() > 0);
+            }
+        }
+    }
+
+    @Test
+    public void test_runEach_in_completion_order() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            List<Integer> order = new ArrayList<>();
+            new BatchRunner(2)
+                    .add(Arrays.asList("sh", "-c", "sleep 1"))
+                    .add(Arrays.asList("sh", "-c", "exit 0"))
+                    .runEach(result -> order.add(result.index()));
+            assertEquals(Arrays.asList(1, 0), order);
+        }
+    }
+
+    @Test
+    public void test_failed_to_start() throws Exception {
+        List<BatchResult> results = new BatchRunner(1)
+                .add(Arrays.asList("no-such-command-subprocessj"))
+                .runAll();
+        assertTrue(results.get(0).exception().isPresent());
+        assertEquals(-999, results.get(0).returncode());
+    }
+
+    @Test
+    public void test_consumer_throws_destroys_running_commands() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Path marker = Files.createTempFile("subprocessj-batch-", ".marker");
+            Files.delete(marker);
+            long start = System.currentTimeMillis();
+            assertThrows(IllegalStateException.class, () ->
+                    new BatchRunner(2)
+                            .add(Arrays.asList("sh", "-c", "exit 0"))
+                            .add(Arrays.asList("sh", "-c", "sleep 1; touch " + marker))
+                            .runEach(result -> { throw new IllegalStateException("broken consumer"); }));
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            Thread.sleep(2000);
+            assertFalse(Files.exists(marker), "the running command should have been destroyed");
+        }
+    }
+}
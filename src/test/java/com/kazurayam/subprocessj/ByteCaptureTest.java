@@ -0,0 +1,56 @@
+package com.kazurayam.subprocessj;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ByteCaptureTest {
+
+    @Test
+    public void test_lines() {
+        ByteCapture capture = new ByteCapture(StandardCharsets.UTF_8);
+        write(capture, "a\nb\r\nc\rd");
+        capture.close();
+        assertEquals(4, capture.lineCount());
+        assertEquals(Arrays.asList("a", "b", "c", "d"), capture.lines());
+    }
+
+    @Test
+    public void test_CRLF_across_chunks() {
+        ByteCapture capture = new ByteCapture(StandardCharsets.UTF_8);
+        write(capture, "a\r");
+        write(capture, "\nb\n");
+        capture.close();
+        assertEquals(Arrays.asList("a", "b"), capture.lines());
+    }
+
+    @Test
+    public void test_bytes_grow() {
+        ByteCapture capture = new ByteCapture(StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("line").append(i).append("\n");
+        }
+        write(capture, sb.toString());
+        capture.close();
+        assertEquals(1000, capture.lineCount());
+        assertEquals("line999", capture.lines().get(999));
+        assertArrayEquals(sb.toString().getBytes(StandardCharsets.UTF_8), capture.bytes());
+    }
+
+    @Test
+    public void test_multibyte() {
+        ByteCapture capture = new ByteCapture(StandardCharsets.UTF_8);
+        write(capture, "こんにちは\n");
+        capture.close();
+        assertEquals("こんにちは", capture.lines().get(0));
+    }
+
+    private void write(ByteCapture capture, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        capture.write(bytes, 0, bytes.length);
+    }
+}
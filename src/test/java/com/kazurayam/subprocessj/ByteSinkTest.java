@@ -0,0 +1,101 @@
+package com.kazurayam.subprocessj;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ByteSinkTest {
+
+    private Path outputDir = Paths.get(".").resolve("build/tmp/testOutput/ByteSinkTest");
+
+    @Test
+    public void test_toFile() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            byte[] data = new byte[300 * 1024];
+            new Random(42).nextBytes(data);
+            Files.createDirectories(outputDir);
+            Path out = outputDir.resolve("test_toFile.bin");
+            CompletedProcess cp = new Subprocess()
+                    .stdin(StdinSource.fromBytes(data))
+                    .runBinary(Arrays.asList("cat"), ByteSink.toFile(out));
+            assertEquals(0, cp.returncode());
+            assertTrue(cp.stdout().isEmpty());
+            assertArrayEquals(data, Files.readAllBytes(out));
+        }
+    }
+
+    @Test
+    public void test_to_channel_and_stderr() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+            CompletedProcess cp = new Subprocess().runBinary(
+                    Arrays.asList("sh", "-c", "printf 'a\\000\\377\\r\\n'; printf 'oops' 1>&2; exit 1"),
+                    ByteSink.to(Channels.newChannel(stdout)),
+                    ByteSink.to(Channels.newChannel(stderr)));
+            assertEquals(1, cp.returncode());
+            assertArrayEquals(new byte[] { 'a', 0, (byte)0xff, '\r', '\n' }, stdout.toByteArray());
+            assertEquals("oops", stderr.toString("US-ASCII"));
+        }
+    }
+
+    @Test
+    public void test_stderr_captured_as_lines() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            CompletedProcess cp = new Subprocess().runBinary(
+                    Arrays.asList("sh", "-c", "echo binary; echo warning 1>&2"),
+                    ByteSink.discard());
+            assertEquals(Arrays.asList("warning"), cp.stderr());
+        }
+    }
+
+    @Test
+    public void test_failing_sink_destroys_the_process() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            long start = System.currentTimeMillis();
+            IOException e = assertThrows(IOException.class, () ->
+                    new Subprocess().runBinary(
+                            Arrays.asList("sh", "-c", "echo data; sleep 30"),
+                            chunk -> { throw new IOException("disk full"); }));
+            assertEquals("disk full", e.getMessage());
+            assertTrue(System.currentTimeMillis() - start < 10000);
+        }
+    }
+
+    @Test
+    public void test_sink_throwing_RuntimeException_destroys_the_process_and_closes_the_sink()
+            throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            AtomicBoolean closed = new AtomicBoolean(false);
+            ByteSink sink = new ByteSink() {
+                @Override
+                public void accept(ByteBuffer chunk) {
+                    throw new IllegalStateException("broken");
+                }
+
+                @Override
+                public void close() {
+                    closed.set(true);
+                }
+            };
+            long start = System.currentTimeMillis();
+            IllegalStateException e = assertThrows(IllegalStateException.class, () ->
+                    new Subprocess().runBinary(Arrays.asList("sh", "-c", "echo data; sleep 30"), sink));
+            assertEquals("broken", e.getMessage());
+            assertTrue(closed.get());
+            assertTrue(System.currentTimeMillis() - start < 10000);
+        }
+    }
+}
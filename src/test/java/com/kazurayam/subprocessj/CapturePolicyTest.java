@@ -0,0 +1,163 @@
+package com.kazurayam.subprocessj;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CapturePolicyTest {
+
+    @Test
+    public void test_unlimited() {
+        LineBuffer buffer = new LineBuffer(CapturePolicy.unlimited());
+        for (int i = 0; i < 10; i++) {
+            buffer.add("line" + i);
+        }
+        assertEquals(10, buffer.lines().size());
+        assertEquals(0, buffer.droppedLines());
+    }
+
+    @Test
+    public void test_timeline() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Subprocess.CompletedProcess cp = new Subprocess()
+                    .capturePolicy(CapturePolicy.timeline())
+                    .run(Arrays.asList("sh", "-c",
+                            "echo first; sleep 0.2; echo oops 1>&2; sleep 0.2; echo last"));
+            List<OutputEvent> events = cp.timeline();
+            assertEquals(3, events.size(), events.toString());
+            assertEquals(OutputEvent.Stream.STDOUT, events.get(0).stream());
+            assertEquals(OutputEvent.Stream.STDERR, events.get(1).stream());
+            assertEquals("last", events.get(2).line());
+            assertEquals(4, events.get(2).byteSize());
+            assertTrue(events.get(0).offsetNanos() < events.get(1).offsetNanos());
+            assertTrue(events.get(1).offsetNanos() < events.get(2).offsetNanos());
+            assertTrue(events.get(2).offsetNanos() - events.get(0).offsetNanos() >= 300_000_000L);
+            // the views split back into the streams
+            assertEquals(Arrays.asList("first", "last"), cp.stdout());
+            assertEquals(Arrays.asList("oops"), cp.stderr());
+            assertEquals(2, OutputEvent.filter(events, OutputEvent.Stream.STDOUT).size());
+        }
+    }
+
+    @Test
+    public void test_timeline_byteSize_as_read() {
+        List<String> lines = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        LineDecoder decoder = LineDecoder.counting(StandardCharsets.UTF_8, CapturePolicy.UNLIMITED,
+                (line, bytes) -> {
+                    lines.add(line);
+                    sizes.add(bytes);
+                });
+        // "h\u00e9llo", a malformed byte, a surrogate pair split over 2 writes
+        byte[] bytes = {'h', (byte) 0xc3, (byte) 0xa9, 'l', 'l', 'o', '\r', '\n',
+                (byte) 0xff, 'x', '\n', (byte) 0xf0, (byte) 0x9f, (byte) 0x98, (byte) 0x80};
+        decoder.write(bytes, 0, 13);
+        decoder.write(bytes, 13, 2);
+        decoder.close();
+        assertEquals(Arrays.asList("h\u00e9llo", "\ufffdx", "\ud83d\ude00"), lines);
+        assertEquals(Arrays.asList(6, 2, 4), sizes);
+    }
+
+    @Test
+    public void test_timeline_bounded() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Subprocess.CompletedProcess cp = new Subprocess()
+                    .capturePolicy(CapturePolicy.timeline(2, 1))
+                    .run(Arrays.asList("sh", "-c", "for i in 1 2 3 4 5 6; do echo $i; done"));
+            List<String> lines = new ArrayList<>();
+            for (OutputEvent e : cp.timeline()) {
+                lines.add(e.line());
+            }
+            assertEquals(Arrays.asList("1", "2", "6"), lines);
+            assertEquals(Arrays.asList("1", "2", "6"), cp.stdout());
+            assertEquals(6, cp.stdoutLineCount());
+            assertEquals(3, cp.stdoutDroppedLines());
+        }
+    }
+
+    @Test
+    public void test_timeline_not_captured() {
+        Subprocess.CompletedProcess cp = new Subprocess.CompletedProcess(Arrays.asList("ls"));
+        assertThrows(IllegalStateException.class, cp::timeline);
+    }
+
+    @Test
+    public void test_headTail() {
+        LineBuffer buffer = new LineBuffer(CapturePolicy.headTail(2, 3));
+        for (int i = 0; i < 10; i++) {
+            buffer.add("line" + i);
+        }
+        assertEquals(Arrays.asList("line0", "line1", "line7", "line8", "line9"), buffer.lines());
+        assertEquals(5, buffer.droppedLines());
+        assertEquals(25, buffer.droppedChars());
+    }
+
+    @Test
+    public void test_headTail_fewLines() {
+        LineBuffer buffer = new LineBuffer(CapturePolicy.headTail(2, 3));
+        for (int i = 0; i < 4; i++) {
+            buffer.add("line" + i);
+        }
+        assertEquals(Arrays.asList("line0", "line1", "line2", "line3"), buffer.lines());
+        assertEquals(0, buffer.droppedLines());
+    }
+
+    @Test
+    public void test_headOnly() {
+        LineBuffer buffer = new LineBuffer(CapturePolicy.headTail(1, 0));
+        buffer.add("a");
+        buffer.add("b");
+        assertEquals(Arrays.asList("a"), buffer.lines());
+        assertEquals(1, buffer.droppedLines());
+    }
+
+    @Test
+    public void test_maxLineLength_invalid() {
+        assertThrows(IllegalArgumentException.class, () ->
+                CapturePolicy.unlimited().maxLineLength(0));
+    }
+
+    @Test
+    public void test_LineDecoder_terminators() {
+        List<String> lines = decode("a\nb\r\nc\rd", CapturePolicy.UNLIMITED);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), lines);
+    }
+
+    @Test
+    public void test_LineDecoder_emptyLines() {
+        List<String> lines = decode("\n\nx\n", CapturePolicy.UNLIMITED);
+        assertEquals(Arrays.asList("", "", "x"), lines);
+    }
+
+    @Test
+    public void test_LineDecoder_split() {
+        List<String> lines = decode("abcdefgh\nabc\nxy", 3);
+        assertEquals(Arrays.asList("abc", "def", "gh", "abc", "xy"), lines);
+    }
+
+    @Test
+    public void test_LineDecoder_multibyteAcrossChunks() {
+        byte[] bytes = "あいう\n".getBytes(StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        LineDecoder decoder = new LineDecoder(StandardCharsets.UTF_8, CapturePolicy.UNLIMITED, lines::add);
+        for (byte b : bytes) {
+            decoder.write(new byte[] { b }, 0, 1);
+        }
+        decoder.close();
+        assertEquals(Arrays.asList("あいう"), lines);
+    }
+
+    private List<String> decode(String text, int maxLineLength) {
+        List<String> lines = new ArrayList<>();
+        LineDecoder decoder = new LineDecoder(StandardCharsets.UTF_8, maxLineLength, lines::add);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        decoder.write(bytes, 0, bytes.length);
+        decoder.close();
+        return lines;
+    }
+}
@@ -0,0 +1,62 @@
+package com.kazurayam.subprocessj;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandSpecTest {
+
+    @Test
+    public void test_command() {
+        CommandSpec spec = new CommandSpec.Builder(
+                Arrays.asList("find", ".", "-name", "{name}.{ext}", "-exec", "ls", "{}", ";"))
+                .build();
+        assertEquals(Arrays.asList("name", "ext"), new ArrayList<>(spec.placeholders()));
+        Map<String, String> bindings = new HashMap<>();
+        bindings.put("name", "*");
+        bindings.put("ext", "java");
+        assertEquals(Arrays.asList("find", ".", "-name", "*.java", "-exec", "ls", "{}", ";"),
+                spec.command(bindings));
+    }
+
+    @Test
+    public void test_unbound_placeholder() {
+        CommandSpec spec = new CommandSpec.Builder(Arrays.asList("echo", "{x}")).build();
+        assertThrows(IllegalArgumentException.class, () -> spec.command(Collections.emptyMap()));
+    }
+
+    @Test
+    public void test_run_concurrently() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            CommandSpec spec = new CommandSpec.Builder(Arrays.asList("sh", "-c", "echo {n} $GREETING"))
+                    .environment("GREETING", "hello")
+                    .build();
+            ExecutorService es = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<CompletedProcess>> futures = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    Map<String, String> bindings = Collections.singletonMap("n", String.valueOf(i));
+                    futures.add(es.submit(() -> spec.run(bindings)));
+                }
+                for (int i = 0; i < 20; i++) {
+                    CompletedProcess cp = futures.get(i).get();
+                    assertEquals(0, cp.returncode());
+                    assertEquals(i + " hello", cp.stdout().get(0));
+                }
+            } finally {
+                es.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.kazurayam.subprocessj;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DemandDrivenOutputTest {
+
+    @Test
+    public void test_backpressure() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Recorder recorder = new Recorder();
+            DemandDrivenOutput output = new DemandDrivenOutput(new Subprocess(),
+                    Arrays.asList("seq", "1", "200000"), OutputEvent.Stream.STDOUT, recorder);
+            output.start();
+            output.request(10);
+            Thread.sleep(500);
+            // the subprocess is blocked on the full pipe, not finished
+            assertEquals(10, recorder.lines.size());
+            assertEquals("10", recorder.lines.get(9));
+            assertFalse(output.onExit().isDone());
+            output.request(Long.MAX_VALUE);
+            CompletedProcess cp = output.onExit().get(30, TimeUnit.SECONDS);
+            assertEquals(0, cp.returncode());
+            recorder.completed.get(5, TimeUnit.SECONDS);
+            assertEquals(200000, recorder.lines.size());
+        }
+    }
+
+    @Test
+    public void test_cancel() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Recorder recorder = new Recorder();
+            DemandDrivenOutput output = new DemandDrivenOutput(new Subprocess(),
+                    Arrays.asList("sh", "-c", "echo first; echo second; exec sleep 30"),
+                    OutputEvent.Stream.STDOUT, recorder);
+            output.start();
+            output.request(1);
+            output.cancel();
+            CompletedProcess cp = output.onExit().get(20, TimeUnit.SECONDS);
+            assertNotEquals(0, cp.returncode());
+            assertFalse(recorder.completed.isDone());
+        }
+    }
+
+    @Test
+    public void test_stderr_published_and_stdout_captured() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Recorder recorder = new Recorder();
+            DemandDrivenOutput output = new DemandDrivenOutput(new Subprocess(),
+                    Arrays.asList("sh", "-c", "echo out; echo progress 1>&2; exit 4"),
+                    OutputEvent.Stream.STDERR, recorder);
+            output.start();
+            output.request(Long.MAX_VALUE);
+            CompletedProcess cp = output.onExit().get(10, TimeUnit.SECONDS);
+            recorder.completed.get(5, TimeUnit.SECONDS);
+            assertEquals(4, cp.returncode());
+            assertEquals(Arrays.asList("out"), cp.stdout());
+            assertEquals(Arrays.asList("progress"), recorder.lines);
+        }
+    }
+
+    @Test
+    public void test_non_positive_request_does_not_overlap_onNext() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            CountDownLatch inOnNext = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicBoolean overlapped = new AtomicBoolean(false);
+            AtomicBoolean busy = new AtomicBoolean(false);
+            CompletableFuture<Throwable> error = new CompletableFuture<>();
+            DemandDrivenOutput.Downstream downstream = new DemandDrivenOutput.Downstream() {
+                @Override
+                public void onNext(String line) {
+                    busy.set(true);
+                    inOnNext.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    busy.set(false);
+                }
+                @Override
+                public void onError(Throwable throwable) {
+                    if (busy.get()) {
+                        overlapped.set(true);
+                    }
+                    error.complete(throwable);
+                }
+                @Override
+                public void onComplete() {
+                    error.complete(null);
+                }
+            };
+            DemandDrivenOutput output = new DemandDrivenOutput(new Subprocess(),
+                    Arrays.asList("sh", "-c", "echo first; echo second; exec sleep 30"),
+                    OutputEvent.Stream.STDOUT, downstream);
+            output.start();
+            output.request(1);
+            assertTrue(inOnNext.await(10, TimeUnit.SECONDS));
+            output.request(0);
+            // not signalled while onNext is running
+            Thread.sleep(200);
+            assertFalse(error.isDone());
+            release.countDown();
+            assertTrue(error.get(20, TimeUnit.SECONDS) instanceof IllegalArgumentException);
+            assertFalse(overlapped.get());
+            output.onExit().get(20, TimeUnit.SECONDS);
+        }
+    }
+
+    private static class Recorder implements DemandDrivenOutput.Downstream {
+        final List<String> lines = new CopyOnWriteArrayList<>();
+        final CompletableFuture<Void> completed = new CompletableFuture<>();
+        @Override
+        public void onNext(String line) {
+            lines.add(line);
+        }
+        @Override
+        public void onError(Throwable throwable) {
+            completed.completeExceptionally(throwable);
+        }
+        @Override
+        public void onComplete() {
+            completed.complete(null);
+        }
+    }
+}
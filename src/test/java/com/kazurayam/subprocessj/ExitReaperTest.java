@@ -0,0 +1,62 @@
+package com.kazurayam.subprocessj;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExitReaperTest {
+
+    @Test
+    public void test_onExit() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Process process = new ProcessBuilder("sh", "-c", "sleep 0.2; exit 3").start();
+            CompletableFuture<Integer> exit = ExitReaper.onExit(process);
+            assertEquals(3, exit.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void test_many_processes() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            List<CompletableFuture<Integer>> exits = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                Process process = new ProcessBuilder("sh", "-c", "sleep 0." + (i % 5) + "; exit " + i)
+                        .redirectOutput(ProcessBuilder.Redirect.to(new File("/dev/null")))
+                        .redirectError(ProcessBuilder.Redirect.to(new File("/dev/null")))
+                        .start();
+                exits.add(ExitReaper.onExit(process));
+            }
+            for (int i = 0; i < 30; i++) {
+                assertEquals(i, exits.get(i).get(10, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    @Test
+    public void test_exit_noticed_soon_after_a_long_run() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            // the polling interval has grown to its maximum by the time the process exits
+            Process process = new ProcessBuilder("sleep", "1").start();
+            CompletableFuture<Integer> exit = ExitReaper.onExit(process);
+            process.waitFor();
+            long start = System.nanoTime();
+            assertEquals(0, exit.get(10, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(80));
+        }
+    }
+
+    @Test
+    public void test_already_exited() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Process process = new ProcessBuilder("true").start();
+            process.waitFor();
+            assertEquals(0, ExitReaper.onExit(process).get(10, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 import com.kazurayam.subprocessj.ProcessTerminator.ProcessTerminationResult;
@@ -29,9 +30,8 @@ public class HiThereServerAsProcessTest {
                 "-cp", "build/classes/java/main",
                 "com.kazurayam.subprocessj.HiThereServer"
         );
-        ProcessBuilder pb = new ProcessBuilder(args);
-        Process process = pb.start();
-        Thread.sleep(2000);  // wait for the process to boot successfully
+        // returns as soon as the server accepts connections
+        new Subprocess().start(args, Readiness.tcpPort(8500).deadline(Duration.ofSeconds(30)));
     }
 
     @Test
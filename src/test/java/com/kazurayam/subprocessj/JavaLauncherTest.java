@@ -0,0 +1,131 @@
+package com.kazurayam.subprocessj;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JavaLauncherTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void test_javaFeatureVersion() {
+        assertEquals(8, JavaLauncher.javaFeatureVersion("1.8"));
+        assertEquals(17, JavaLauncher.javaFeatureVersion("17"));
+        assertEquals(21, JavaLauncher.javaFeatureVersion("21.0"));
+    }
+
+    @Test
+    public void test_command() {
+        List<String> command = new JavaLauncher(Collections.singletonList(new File("app.jar")))
+                .appCDS(false)
+                .command("com.example.Main", Arrays.asList("a"));
+        assertEquals(JavaLauncher.javaCommand(), command.get(0));
+        assertTrue(new File(command.get(0)).exists());
+        assertEquals("-cp", command.get(1));
+        assertEquals(Arrays.asList("com.example.Main", "a"), command.subList(3, 5));
+    }
+
+    @Test
+    public void test_archive_created_and_invalidated() throws Exception {
+        Path jar = tempDir.resolve("greeter.jar");
+        makeJar(jar);
+        Path cds = tempDir.resolve("cds");
+        JavaLauncher launcher = new JavaLauncher(Collections.singletonList(jar.toFile()))
+                .cdsDirectory(cds.toFile());
+        String mainClass = JvmWorkerPoolTest.Greeter.class.getName();
+        Path archive = launcher.archive(mainClass);
+        for (int i = 0; i < 2; i++) {
+            CompletedProcess cp = new Subprocess().run(
+                    launcher.command(mainClass, Arrays.asList("CDS")));
+            assertEquals(0, cp.returncode(), cp.toString());
+            assertEquals(Arrays.asList("Hello, CDS"), cp.stdout());
+        }
+        if (JavaLauncher.javaFeatureVersion() >= 13) {
+            assertTrue(Files.exists(archive));
+        }
+        // rebuilding the jar changes the archive
+        assertTrue(jar.toFile().setLastModified(jar.toFile().lastModified() + 2000));
+        Path archive2 = launcher.archive(mainClass);
+        assertNotEquals(archive, archive2);
+        CompletedProcess cp = new Subprocess().run(launcher.command(mainClass, Arrays.asList("again")));
+        assertEquals(Arrays.asList("Hello, again"), cp.stdout());
+        // the stale archive is deleted
+        assertFalse(Files.exists(archive));
+    }
+
+    @Test
+    public void test_archives_of_other_classpath_are_kept() throws Exception {
+        Path jarA = tempDir.resolve("a.jar");
+        Path jarB = tempDir.resolve("b.jar");
+        makeJar(jarA);
+        makeJar(jarB);
+        Path cds = tempDir.resolve("cds-ab");
+        String mainClass = JvmWorkerPoolTest.Greeter.class.getName();
+        JavaLauncher launcherA = new JavaLauncher(Collections.singletonList(jarA.toFile()))
+                .cdsDirectory(cds.toFile());
+        JavaLauncher launcherB = new JavaLauncher(Collections.singletonList(jarB.toFile()))
+                .cdsDirectory(cds.toFile());
+        assertNotEquals(launcherA.archive(mainClass), launcherB.archive(mainClass));
+        for (JavaLauncher launcher : Arrays.asList(launcherA, launcherB, launcherA, launcherB)) {
+            CompletedProcess cp = new Subprocess().run(launcher.command(mainClass, Arrays.asList("x")));
+            assertEquals(0, cp.returncode(), cp.toString());
+        }
+        if (JavaLauncher.javaFeatureVersion() >= 13) {
+            assertTrue(Files.exists(launcherA.archive(mainClass)));
+            assertTrue(Files.exists(launcherB.archive(mainClass)));
+        }
+    }
+
+    @Test
+    public void test_dump_retried_when_no_child_is_dumping() throws Exception {
+        int version = JavaLauncher.javaFeatureVersion();
+        if (version >= 13 && version < 19) {
+            Path jar = tempDir.resolve("retry.jar");
+            makeJar(jar);
+            JavaLauncher launcher = new JavaLauncher(Collections.singletonList(jar.toFile()))
+                    .cdsDirectory(tempDir.resolve("cds-retry").toFile());
+            String mainClass = JvmWorkerPoolTest.Greeter.class.getName();
+            String dump = "-XX:ArchiveClassesAtExit=" + launcher.archive(mainClass);
+            assertTrue(launcher.command(mainClass, Collections.emptyList()).contains(dump));
+            // the first command was never launched, so the archive is not being dumped
+            assertTrue(launcher.command(mainClass, Collections.emptyList()).contains(dump));
+        }
+    }
+
+    @Test
+    public void test_no_cds_with_directory() {
+        List<String> command = new JavaLauncher(Collections.singletonList(tempDir.toFile()))
+                .command("com.example.Main", Collections.emptyList());
+        assertEquals("-cp", command.get(1));
+    }
+
+    private static void makeJar(Path jar) throws Exception {
+        String entryName = JvmWorkerPoolTest.Greeter.class.getName().replace('.', '/') + ".class";
+        try (OutputStream os = Files.newOutputStream(jar);
+             JarOutputStream jos = new JarOutputStream(os);
+             InputStream is = JavaLauncherTest.class.getClassLoader().getResourceAsStream(entryName)) {
+            jos.putNextEntry(new JarEntry(entryName));
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                jos.write(buffer, 0, n);
+            }
+            jos.closeEntry();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.kazurayam.subprocessj;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JvmWorkerPoolTest {
+
+    private static JvmWorkerPool pool;
+
+    /**
+     * a main class to be run in the worker JVMs
+     */
+    public static class Greeter {
+        static int count = 0;
+        public static void main(String[] args) {
+            count += 1;
+            if (args.length > 0 && args[0].equals("exit")) {
+                System.out.println("bye");
+                System.exit(7);
+            }
+            if (args.length > 0 && args[0].equals("throw")) {
+                throw new IllegalStateException("thrown by Greeter");
+            }
+            if (args.length > 0 && args[0].equals("stray")) {
+                // bypasses System.out, as a native library would do
+                try {
+                    FileOutputStream fd1 = new FileOutputStream(FileDescriptor.out);
+                    fd1.write("stray output\n".getBytes(StandardCharsets.UTF_8));
+                    fd1.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            if (args.length > 0 && args[0].equals("many")) {
+                for (int i = 0; i < 100; i++) {
+                    System.out.println("line" + i);
+                }
+                return;
+            }
+            System.out.println("Hello, " + String.join(" ", args));
+            System.err.println("count=" + count);
+        }
+    }
+
+    private static File testClasses() throws Exception {
+        return new File(JvmWorkerPoolTest.class.getProtectionDomain()
+                .getCodeSource().getLocation().toURI());
+    }
+
+    @BeforeAll
+    public static void beforeAll() throws Exception {
+        pool = new JvmWorkerPool.Builder(Collections.singletonList(testClasses()))
+                .size(1).maxRunsPerWorker(3).build();
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        pool.close();
+    }
+
+    @Test
+    public void test_run() throws Exception {
+        CompletedProcess cp = pool.run(Greeter.class.getName(), Arrays.asList("world"));
+        assertEquals(0, cp.returncode());
+        assertEquals(Arrays.asList("Hello, world"), cp.stdout());
+        // a fresh class loader for each run
+        assertEquals(Arrays.asList("count=1"), cp.stderr());
+    }
+
+    @Test
+    public void test_many_runs_recycled() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            CompletedProcess cp = pool.run(Greeter.class.getName(), Arrays.asList(String.valueOf(i)));
+            assertEquals("Hello, " + i, cp.stdout().get(0));
+        }
+    }
+
+    @Test
+    public void test_System_exit() throws Exception {
+        CompletedProcess cp = pool.run(Greeter.class.getName(), Arrays.asList("exit"));
+        assertEquals(7, cp.returncode());
+        assertEquals(Arrays.asList("bye"), cp.stdout());
+        // the pool has replaced the worker
+        cp = pool.run(Greeter.class.getName(), Arrays.asList("again"));
+        assertEquals(0, cp.returncode());
+    }
+
+    @Test
+    public void test_exception() throws Exception {
+        CompletedProcess cp = pool.run(Greeter.class.getName(), Arrays.asList("throw"));
+        assertEquals(1, cp.returncode());
+        assertTrue(cp.stderr().get(0).contains("thrown by Greeter"), cp.toString());
+    }
+
+    @Test
+    public void test_class_not_found() throws Exception {
+        CompletedProcess cp = pool.run("no.such.Main", Collections.emptyList());
+        assertEquals(1, cp.returncode());
+        assertTrue(cp.stderr().get(0).startsWith("Error:"), cp.toString());
+    }
+
+    @Test
+    public void test_stray_write_to_fd1() throws Exception {
+        CompletedProcess cp = pool.run(Greeter.class.getName(), Arrays.asList("stray"));
+        assertEquals(0, cp.returncode());
+        assertEquals(Arrays.asList("Hello, stray"), cp.stdout());
+        cp = pool.run(Greeter.class.getName(), Arrays.asList("after"));
+        assertEquals(Arrays.asList("Hello, after"), cp.stdout());
+    }
+
+    @Test
+    public void test_capturePolicy_applied_in_the_worker() throws Exception {
+        try (JvmWorkerPool bounded = new JvmWorkerPool.Builder(Collections.singletonList(testClasses()))
+                .capturePolicy(CapturePolicy.headTail(2, 1)).build()) {
+            CompletedProcess cp = bounded.run(Greeter.class.getName(), Arrays.asList("many"));
+            assertEquals(Arrays.asList("line0", "line1", "line99"), cp.stdout());
+            assertEquals(100, cp.stdoutLineCount());
+            assertEquals(97, cp.stdoutDroppedLines());
+        }
+    }
+
+    @Test
+    public void test_non_default_charset() throws Exception {
+        Charset charset = Charset.defaultCharset().equals(StandardCharsets.UTF_8)
+                ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8;
+        try (JvmWorkerPool other = new JvmWorkerPool.Builder(Collections.singletonList(testClasses()))
+                .charset(charset).build()) {
+            CompletedProcess cp = other.run(Greeter.class.getName(), Arrays.asList("h\u00e9llo w\u00f6rld"));
+            assertEquals(Arrays.asList("Hello, h\u00e9llo w\u00f6rld"), cp.stdout());
+        }
+    }
+}
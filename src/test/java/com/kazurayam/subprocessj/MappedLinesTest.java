@@ -0,0 +1,87 @@
+package com.kazurayam.subprocessj;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedLinesTest {
+
+    private Path outputDir = Paths.get(".").resolve("build/tmp/testOutput/MappedLinesTest");
+
+    @BeforeEach
+    public void beforeEach() throws IOException {
+        Files.createDirectories(outputDir);
+    }
+
+    @Test
+    public void test_get_and_size() throws IOException {
+        Path file = write("a.txt", "foo\nbar\r\nbaz");
+        MappedLines lines = MappedLines.open(file, StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertEquals("bar", lines.get(1));
+        assertEquals("baz", lines.get(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> lines.get(3));
+    }
+
+    @Test
+    public void test_iterator() throws IOException {
+        Path file = write("b.txt", "foo\nbar\r\n\nbaz\n");
+        MappedLines lines = MappedLines.open(file, StandardCharsets.UTF_8);
+        List<String> iterated = new ArrayList<>();
+        for (String line : lines) {
+            iterated.add(line);
+        }
+        assertEquals(Arrays.asList("foo", "bar", "", "baz"), iterated);
+        assertEquals(iterated, lines.stream().collect(Collectors.toList()));
+        assertEquals(iterated, new ArrayList<>(lines));
+    }
+
+    @Test
+    public void test_empty() throws IOException {
+        Path file = write("empty.txt", "");
+        MappedLines lines = MappedLines.open(file, StandardCharsets.UTF_8);
+        assertEquals(0, lines.size());
+        assertFalse(lines.iterator().hasNext());
+    }
+
+    @Test
+    public void test_redirectStdout() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            File out = outputDir.resolve("stdout.txt").toFile();
+            File err = outputDir.resolve("stderr.txt").toFile();
+            Subprocess.CompletedProcess cp = new Subprocess()
+                    .redirectStdout(out)
+                    .redirectStderr(err)
+                    .run(Arrays.asList("sh", "-c", "echo foo; echo bar; echo oops 1>&2"));
+            assertEquals(0, cp.returncode());
+            assertEquals(Arrays.asList("foo", "bar"), cp.stdout());
+            assertEquals(2, cp.stdoutMapped().size());
+            assertEquals("oops", cp.stderrMapped().get(0));
+            assertEquals("foo\nbar\n", new String(cp.stdoutBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void test_stdoutMapped_not_redirected() {
+        Subprocess.CompletedProcess cp = new Subprocess.CompletedProcess(Arrays.asList("ls"));
+        assertThrows(IllegalStateException.class, cp::stdoutMapped);
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = outputDir.resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
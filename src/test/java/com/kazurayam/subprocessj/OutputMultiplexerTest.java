@@ -0,0 +1,134 @@
+package com.kazurayam.subprocessj;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutputMultiplexerTest {
+
+    private static OutputMultiplexer multiplexer;
+
+    @BeforeAll
+    public static void beforeAll() {
+        multiplexer = new OutputMultiplexer(1);
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        multiplexer.close();
+    }
+
+    @Test
+    public void test_run_via_multiplexer() throws Exception {
+        Subprocess.CompletedProcess cp =
+                new Subprocess().multiplexer(multiplexer)
+                        .run(Arrays.asList("java", "-version"));
+        assertEquals(0, cp.returncode());
+        assertTrue(cp.stderr().size() > 0);
+    }
+
+    @Test
+    public void test_many_processes_by_single_thread() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            List<String> lines = Collections.synchronizedList(new ArrayList<>());
+            for (int i = 0; i < 20; i++) {
+                Process process = new ProcessBuilder(
+                        Arrays.asList("sh", "-c", "echo out" + " ; echo err 1>&2; exit 3")).start();
+                futures.add(multiplexer.register(process, StandardCharsets.UTF_8,
+                        lines::add, lines::add));
+            }
+            for (CompletableFuture<Integer> f : futures) {
+                assertEquals(3, f.get(30, TimeUnit.SECONDS));
+            }
+            assertEquals(40, lines.size());
+        }
+    }
+
+    @Test
+    public void test_grandchild_holding_the_pipe() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            long start = System.currentTimeMillis();
+            Process process = new ProcessBuilder(
+                    Arrays.asList("sh", "-c", "echo started; sleep 30 & exit 0")).start();
+            List<String> lines = Collections.synchronizedList(new ArrayList<>());
+            CompletableFuture<Integer> f = multiplexer.register(process, StandardCharsets.UTF_8,
+                    lines::add, lines::add);
+            assertEquals(0, f.get(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("started"), lines);
+            // the worker thread is free for the other processes
+            Subprocess.CompletedProcess cp = new Subprocess().multiplexer(multiplexer)
+                    .run(Arrays.asList("sh", "-c", "echo next"));
+            assertEquals(Arrays.asList("next"), cp.stdout());
+            assertTrue(System.currentTimeMillis() - start < 10000);
+        }
+    }
+
+    @Test
+    public void test_failing_consumer_destroys_the_process() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Process process = new ProcessBuilder(
+                    Arrays.asList("sh", "-c", "echo data; exec sleep 30")).start();
+            CompletableFuture<Integer> f = multiplexer.register(process, StandardCharsets.UTF_8,
+                    line -> { throw new IllegalStateException("broken consumer"); }, line -> {});
+            assertThrows(Exception.class, () -> f.get(10, TimeUnit.SECONDS));
+            assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void test_consumer_failure_is_thrown_as_is() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            IllegalStateException e = assertThrows(IllegalStateException.class, () ->
+                    new Subprocess().multiplexer(multiplexer).run(
+                            Arrays.asList("sh", "-c", "echo data"),
+                            line -> { throw new IllegalStateException("broken consumer"); },
+                            line -> {}));
+            assertEquals("broken consumer", e.getMessage());
+        }
+    }
+
+    @Test
+    public void test_stdoutFilter_stops_the_process() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Subprocess.CompletedProcess cp = new Subprocess().multiplexer(multiplexer)
+                    .stdoutFilter(LineFilter.containing("line100").stopAfterFirstMatch())
+                    .run(Arrays.asList("sh", "-c",
+                            "i=0; while true; do echo line$i; echo err$i 1>&2; i=$((i+1)); done"));
+            assertTrue(cp.stoppedEarly());
+            assertEquals(Arrays.asList("line100"), cp.stdout());
+        }
+    }
+
+    @Test
+    public void test_cancel_closes_the_sinks() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Process process = new ProcessBuilder(
+                    Arrays.asList("sh", "-c", "exec sleep 30")).start();
+            CountDownLatch closed = new CountDownLatch(2);
+            StreamSink sink = new StreamSink() {
+                @Override
+                public void write(byte[] bytes, int offset, int length) {}
+                @Override
+                public void close() {
+                    closed.countDown();
+                }
+            };
+            CompletableFuture<Integer> f = multiplexer.register(process, sink, sink);
+            f.cancel(true);
+            assertTrue(closed.await(10, TimeUnit.SECONDS));
+            assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+        }
+    }
+}
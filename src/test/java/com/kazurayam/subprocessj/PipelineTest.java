@@ -0,0 +1,84 @@
+package com.kazurayam.subprocessj;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.kazurayam.subprocessj.Pipeline.PipelineResult;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelineTest {
+
+    @Test
+    public void test_run() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            PipelineResult pr = new Pipeline()
+                    .stdin(StdinSource.fromBytes("apple\nbanana\navocado\n".getBytes(StandardCharsets.UTF_8)))
+                    .add(Arrays.asList("cat"))
+                    .add(Arrays.asList("grep", "^a"))
+                    .add(Arrays.asList("wc", "-l"))
+                    .run();
+            assertEquals(Arrays.asList(0, 0, 0), pr.returncodes());
+            assertEquals("2", pr.stdout().get(0).trim());
+        }
+    }
+
+    @Test
+    public void test_stderr_and_returncodes_per_stage() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            PipelineResult pr = new Pipeline()
+                    .add(Arrays.asList("sh", "-c", "echo foo; echo oops 1>&2; exit 3"))
+                    .add(Arrays.asList("cat"))
+                    .run();
+            assertEquals(Arrays.asList(3, 0), pr.returncodes());
+            assertEquals(0, pr.returncode());
+            assertEquals(Arrays.asList("oops"), pr.stderr(0));
+            assertEquals(Arrays.asList("foo"), pr.stdout());
+        }
+    }
+
+    @Test
+    public void test_large_data() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            PipelineResult pr = new Pipeline()
+                    .add(Arrays.asList("sh", "-c", "i=0; while [ $i -lt 100000 ]; do echo line$i; i=$((i+1)); done"))
+                    .add(Arrays.asList("cat"))
+                    .add(Arrays.asList("wc", "-l"))
+                    .run();
+            assertEquals("100000", pr.stdout().get(0).trim());
+        }
+    }
+
+    @Test
+    public void test_interrupt_destroys_the_commands() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            final Thread caller = Thread.currentThread();
+            Thread interrupter = new Thread(() -> {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException ignored) {
+                    return;
+                }
+                caller.interrupt();
+            });
+            interrupter.start();
+            long start = System.currentTimeMillis();
+            try {
+                assertThrows(InterruptedException.class, () -> new Pipeline()
+                        .add(Arrays.asList("sh", "-c", "exec >&-; exec sleep 30"))
+                        .run());
+            } finally {
+                interrupter.join();
+                Thread.interrupted();
+            }
+            assertTrue(System.currentTimeMillis() - start < 10000);
+        }
+    }
+
+    @Test
+    public void test_no_command() {
+        assertThrows(IllegalStateException.class, () -> new Pipeline().run());
+    }
+}
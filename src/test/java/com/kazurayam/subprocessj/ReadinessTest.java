@@ -0,0 +1,59 @@
+package com.kazurayam.subprocessj;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadinessTest {
+
+    @Test
+    public void test_stdoutMatches() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            long start = System.currentTimeMillis();
+            try (RunningProcess rp = new Subprocess().start(
+                    Arrays.asList("sh", "-c", "echo booting; sleep 0.3; echo READY; sleep 30"),
+                    Readiness.stdoutMatches(Pattern.compile("^READY$")))) {
+                assertTrue(rp.isAlive());
+                assertTrue(System.currentTimeMillis() - start < 10000);
+            }
+        }
+    }
+
+    @Test
+    public void test_tcpPort() throws Exception {
+        try (ServerSocket ss = new ServerSocket(0)) {
+            Readiness.tcpPort(ss.getLocalPort()).deadline(Duration.ofSeconds(5)).await();
+        }
+    }
+
+    @Test
+    public void test_deadline() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            IOException e = assertThrows(IOException.class, () ->
+                    new Subprocess().start(
+                            Arrays.asList("sh", "-c", "echo not yet 1>&2; sleep 30"),
+                            Readiness.stdoutMatches(Pattern.compile("READY"))
+                                    .deadline(Duration.ofMillis(300))));
+            assertTrue(e.getMessage().startsWith("not ready within PT0.3S"), e.getMessage());
+            assertTrue(e.getMessage().contains("not yet"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void test_exited_before_ready() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            IOException e = assertThrows(IOException.class, () ->
+                    new Subprocess().start(
+                            Arrays.asList("sh", "-c", "echo failed to bind 1>&2; exit 3"),
+                            Readiness.tcpPort(1).deadline(Duration.ofSeconds(10))));
+            assertTrue(e.getMessage().contains("rc=3"), e.getMessage());
+            assertTrue(e.getMessage().contains("failed to bind"), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.kazurayam.subprocessj;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RunningProcessTest {
+
+    @Test
+    public void test_stdout_snapshot_while_running() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            try (RunningProcess rp = new Subprocess().start(
+                    Arrays.asList("sh", "-c", "echo first; echo second; sleep 30"))) {
+                // -1 on Java 8; MultiReleaseTest checks the pid on Java 9 and later
+                assertTrue(rp.pid() > 0 || rp.pid() == -1);
+                long deadline = System.currentTimeMillis() + 10000;
+                while (rp.stdout().size() < 2 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(20);
+                }
+                List<String> snapshot = rp.stdout();
+                assertEquals(Arrays.asList("first", "second"), snapshot);
+                assertThrows(UnsupportedOperationException.class, () -> snapshot.add("third"));
+                assertTrue(rp.isAlive());
+                assertFalse(rp.awaitExit(Duration.ofMillis(100)).isPresent());
+            }
+        }
+    }
+
+    @Test
+    public void test_awaitExit() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            RunningProcess rp = new Subprocess().start(
+                    Arrays.asList("sh", "-c", "echo out; echo err 1>&2; exit 2"));
+            Optional<Subprocess.CompletedProcess> cp = rp.awaitExit(Duration.ofSeconds(10));
+            assertTrue(cp.isPresent());
+            assertEquals(2, cp.get().returncode());
+            assertEquals(Arrays.asList("out"), cp.get().stdout());
+            assertEquals(Arrays.asList("err"), rp.stderr());
+            assertFalse(rp.isAlive());
+        }
+    }
+
+    @Test
+    public void test_snapshot_not_available_with_raw() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            try (RunningProcess rp = new Subprocess().capturePolicy(CapturePolicy.raw())
+                    .start(Arrays.asList("sh", "-c", "sleep 30"))) {
+                assertThrows(IllegalStateException.class, rp::stdout);
+            }
+        }
+    }
+
+    @Test
+    public void test_stop() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            RunningProcess rp = new Subprocess().start(Arrays.asList("sh", "-c", "sleep 30"));
+            rp.stop();
+            assertFalse(rp.isAlive());
+            assertTrue(rp.awaitExit(Duration.ofSeconds(5)).isPresent());
+        }
+    }
+}
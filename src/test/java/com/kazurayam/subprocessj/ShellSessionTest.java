@@ -0,0 +1,130 @@
+package com.kazurayam.subprocessj;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShellSessionTest {
+
+    private static ShellSession session;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        if (OSType.isMac() || OSType.isUnix()) {
+            session = new ShellSession();
+        }
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    @Test
+    public void test_run() throws Exception {
+        if (session != null) {
+            Subprocess.CompletedProcess cp = session.run(Arrays.asList("echo", "hello world"));
+            assertEquals(0, cp.returncode());
+            assertEquals(Arrays.asList("hello world"), cp.stdout());
+        }
+    }
+
+    @Test
+    public void test_many_commands() throws Exception {
+        if (session != null) {
+            for (int i = 0; i < 100; i++) {
+                Subprocess.CompletedProcess cp = session.run(Arrays.asList("echo", String.valueOf(i)));
+                assertEquals(String.valueOf(i), cp.stdout().get(0));
+            }
+        }
+    }
+
+    @Test
+    public void test_returncode_and_stderr() throws Exception {
+        if (session != null) {
+            Subprocess.CompletedProcess cp = session.runScript("echo oops 1>&2; exit 3");
+            assertEquals(3, cp.returncode());
+            assertEquals(Arrays.asList("oops"), cp.stderr());
+            assertEquals(0, cp.stdout().size());
+            // the session survives "exit"
+            assertTrue(session.isAlive());
+        }
+    }
+
+    @Test
+    public void test_output_without_newline() throws Exception {
+        if (session != null) {
+            Subprocess.CompletedProcess cp = session.run(Arrays.asList("printf", "abc"));
+            assertEquals(0, cp.returncode());
+            assertEquals(Arrays.asList("abc"), cp.stdout());
+        }
+    }
+
+    @Test
+    public void test_long_line_is_split() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            try (ShellSession sh = new ShellSession()
+                    .capturePolicy(CapturePolicy.unlimited().maxLineLength(10))) {
+                Subprocess.CompletedProcess cp = sh.runScript("printf 'abcdefghijklmnopqrstuvwxy\\n'");
+                assertEquals(Arrays.asList("abcdefghij", "klmnopqrst", "uvwxy"), cp.stdout());
+                cp = sh.runScript("printf 'abcdefghijklmnopqrstuvwxy'");
+                assertEquals(Arrays.asList("abcdefghij", "klmnopqrst", "uvwxy"), cp.stdout());
+                assertEquals(0, cp.returncode());
+            }
+        }
+    }
+
+    @Test
+    public void test_timeline_is_rejected() {
+        if (OSType.isMac() || OSType.isUnix()) {
+            try (ShellSession sh = new ShellSession()) {
+                assertThrows(IllegalArgumentException.class,
+                        () -> sh.capturePolicy(CapturePolicy.timeline()));
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    @Test
+    public void test_unbalanced_quote_times_out() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            try (ShellSession sh = new ShellSession()) {
+                long start = System.nanoTime();
+                IOException e = assertThrows(IOException.class,
+                        () -> sh.runScript("echo 'unbalanced", Duration.ofMillis(500)));
+                assertTrue(e.getMessage().contains("destroyed"), e.getMessage());
+                assertTrue(System.nanoTime() - start < 5_000_000_000L);
+                for (int i = 0; i < 50 && sh.isAlive(); i++) {
+                    Thread.sleep(100);
+                }
+                assertFalse(sh.isAlive());
+                assertThrows(IOException.class, () -> sh.run(Arrays.asList("echo", "hello")));
+            }
+        }
+    }
+
+    @Test
+    public void test_quote() {
+        assertEquals("abc", ShellSession.quote("abc"));
+        assertEquals("'a b'", ShellSession.quote("a b"));
+        assertEquals("'it'\\''s'", ShellSession.quote("it's"));
+        assertEquals("''", ShellSession.quote(""));
+        if (session != null) {
+            try {
+                Subprocess.CompletedProcess cp = session.run(Arrays.asList("echo", "it's $HOME `ls`"));
+                assertEquals("it's $HOME `ls`", cp.stdout().get(0));
+            } catch (IOException | InterruptedException e) {
+                fail(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.kazurayam.subprocessj;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpawnServerTest {
+
+    private static SpawnServer spawnServer;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        if (OSType.isMac() || OSType.isUnix()) {
+            spawnServer = new SpawnServer();
+        }
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        if (spawnServer != null) {
+            spawnServer.close();
+        }
+    }
+
+    @Test
+    public void test_run() throws Exception {
+        if (spawnServer != null) {
+            Subprocess subprocess = new Subprocess().spawnServer(spawnServer);
+            subprocess.environment().put("GREETING", "it's me");
+            subprocess.cwd(new File(System.getProperty("user.home")));
+            CompletedProcess cp = subprocess.run(Arrays.asList(
+                    "sh", "-c", "echo \"$GREETING\"; pwd; echo oops 1>&2; exit 3"));
+            assertEquals(3, cp.returncode());
+            assertEquals(Arrays.asList("it's me",
+                    new File(System.getProperty("user.home")).getCanonicalPath()), cp.stdout());
+            assertEquals(Arrays.asList("oops"), cp.stderr());
+        }
+    }
+
+    @Test
+    public void test_stdin_fromPath() throws Exception {
+        if (spawnServer != null) {
+            Path input = Files.createTempFile("SpawnServerTest", ".txt");
+            Files.write(input, Arrays.asList("b", "a"));
+            CompletedProcess cp = new Subprocess().spawnServer(spawnServer)
+                    .stdin(StdinSource.fromPath(input))
+                    .run(Arrays.asList("sort"));
+            assertEquals(Arrays.asList("a", "b"), cp.stdout());
+            Files.delete(input);
+        }
+    }
+
+    @Test
+    public void test_runAsync_many() throws Exception {
+        if (spawnServer != null) {
+            List<CompletableFuture<CompletedProcess>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(new Subprocess().spawnServer(spawnServer)
+                        .runAsync(Arrays.asList("echo", String.valueOf(i))));
+            }
+            for (int i = 0; i < 20; i++) {
+                CompletedProcess cp = futures.get(i).get();
+                assertEquals(0, cp.returncode());
+                assertEquals(String.valueOf(i), cp.stdout().get(0));
+            }
+        }
+    }
+
+    @Test
+    public void test_timeout() throws Exception {
+        if (spawnServer != null) {
+            long start = System.currentTimeMillis();
+            CompletedProcess cp = new Subprocess().spawnServer(spawnServer)
+                    .run(Arrays.asList("sleep", "30"), Duration.ofMillis(300));
+            assertTrue(cp.timedOut());
+            assertNotEquals(0, cp.returncode());
+            assertTrue(System.currentTimeMillis() - start < 10000);
+        }
+    }
+
+    @Test
+    public void test_command_not_found() throws Exception {
+        if (spawnServer != null) {
+            CompletedProcess cp = new Subprocess().spawnServer(spawnServer)
+                    .run(Arrays.asList("no-such-command-xyz"));
+            assertEquals(127, cp.returncode());
+        }
+    }
+
+    @Test
+    public void test_batch_abort_kills_spawned_commands() throws Exception {
+        if (spawnServer != null) {
+            Path marker = Files.createTempFile("subprocessj-spawn-", ".marker");
+            Files.delete(marker);
+            assertThrows(IllegalStateException.class, () ->
+                    new BatchRunner(2)
+                            .add(new Subprocess().spawnServer(spawnServer),
+                                    Arrays.asList("sh", "-c", "exit 0"))
+                            .add(new Subprocess().spawnServer(spawnServer),
+                                    Arrays.asList("sh", "-c", "sleep 1; touch " + marker))
+                            .runEach(result -> { throw new IllegalStateException("broken consumer"); }));
+            Thread.sleep(2000);
+            assertFalse(Files.exists(marker), "the spawned command should have been killed");
+        }
+    }
+}
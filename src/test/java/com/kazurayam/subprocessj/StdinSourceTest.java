@@ -0,0 +1,141 @@
+package com.kazurayam.subprocessj;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StdinSourceTest {
+
+    private Path outputDir = Paths.get(".").resolve("build/tmp/testOutput/StdinSourceTest");
+
+    @BeforeEach
+    public void beforeEach() throws IOException {
+        Files.createDirectories(outputDir);
+    }
+
+    @Test
+    public void test_fromBytes() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Subprocess.CompletedProcess cp = new Subprocess()
+                    .stdin(StdinSource.fromBytes("foo\nbar\n".getBytes(StandardCharsets.UTF_8)))
+                    .run(Arrays.asList("cat"));
+            assertEquals(0, cp.returncode());
+            assertEquals(Arrays.asList("foo", "bar"), cp.stdout());
+        }
+    }
+
+    @Test
+    public void test_fromInputStream() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Subprocess.CompletedProcess cp = new Subprocess()
+                    .stdin(StdinSource.fromInputStream(
+                            new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8))))
+                    .run(Arrays.asList("tr", "a-z", "A-Z"));
+            assertEquals(0, cp.returncode());
+            assertEquals(Arrays.asList("HELLO"), cp.stdout());
+        }
+    }
+
+    @Test
+    public void test_fromInputStream_used_twice() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Subprocess subprocess = new Subprocess()
+                    .stdin(StdinSource.fromInputStream(
+                            new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8))));
+            subprocess.run(Arrays.asList("cat"));
+            assertThrows(IllegalStateException.class, () -> subprocess.run(Arrays.asList("cat")));
+        }
+    }
+
+    @Test
+    public void test_fromInputStream_released_when_failed_to_start() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Subprocess subprocess = new Subprocess()
+                    .stdin(StdinSource.fromInputStream(
+                            new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8))));
+            assertThrows(IOException.class, () -> subprocess.run(Arrays.asList("no-such-command-subprocessj")));
+            Subprocess.CompletedProcess cp = subprocess.run(Arrays.asList("cat"));
+            assertEquals(Arrays.asList("hello"), cp.stdout());
+        }
+    }
+
+    @Test
+    public void test_fromInputStream_released_when_pipeline_failed_to_start() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            StdinSource source = StdinSource.fromInputStream(
+                    new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)));
+            assertThrows(IOException.class, () -> new Pipeline().stdin(source)
+                    .add(Arrays.asList("cat"))
+                    .add(Arrays.asList("no-such-command-subprocessj"))
+                    .run());
+            Pipeline.PipelineResult pr = new Pipeline().stdin(source)
+                    .add(Arrays.asList("cat"))
+                    .run();
+            assertEquals(Arrays.asList("hello"), pr.stdout());
+        }
+    }
+
+    @Test
+    public void test_fromPath() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Path input = outputDir.resolve("input.txt");
+            Files.write(input, "a\nb\nc\n".getBytes(StandardCharsets.UTF_8));
+            Subprocess.CompletedProcess cp = new Subprocess()
+                    .stdin(StdinSource.fromPath(input))
+                    .run(Arrays.asList("wc", "-l"));
+            assertEquals(0, cp.returncode());
+            assertEquals("3", cp.stdout().get(0).trim());
+        }
+    }
+
+    /**
+     * 16MB goes through "cat"; far more than the OS pipe buffer.
+     * This would deadlock if the STDIN were written before the STDOUT is consumed.
+     */
+    @Test
+    public void test_fromSupplier_large() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            final byte[] chunk = new byte[64 * 1024];
+            Arrays.fill(chunk, (byte)'x');
+            chunk[chunk.length - 1] = '\n';
+            final AtomicInteger count = new AtomicInteger(0);
+            Subprocess.CompletedProcess cp = new Subprocess()
+                    .capturePolicy(CapturePolicy.headTail(1, 1))
+                    .stdin(StdinSource.fromSupplier(() ->
+                            (count.incrementAndGet() <= 256) ? chunk : null))
+                    .run(Arrays.asList("cat"));
+            assertEquals(0, cp.returncode());
+            assertEquals(256, cp.stdoutLineCount());
+        }
+    }
+
+    @Test
+    public void test_subprocess_exits_early() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            final byte[] chunk = "line\n".getBytes(StandardCharsets.UTF_8);
+            final AtomicInteger count = new AtomicInteger(0);
+            Subprocess.CompletedProcess cp = new Subprocess()
+                    .stdin(StdinSource.fromSupplier(() ->
+                            (count.incrementAndGet() <= 1000000) ? chunk : null))
+                    .run(Arrays.asList("head", "-1"));
+            assertEquals(0, cp.returncode());
+            assertEquals(Arrays.asList("line"), cp.stdout());
+        }
+    }
+
+    @Test
+    public void test_fromPath_not_exist() {
+        assertThrows(IllegalArgumentException.class, () ->
+                StdinSource.fromPath(outputDir.resolve("no-such-file")));
+    }
+}
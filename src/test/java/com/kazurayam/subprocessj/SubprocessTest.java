@@ -4,9 +4,24 @@ import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import static org.junit.jupiter.api.Assertions.*;
 
 class SubprocessTest {
@@ -45,6 +60,202 @@ class SubprocessTest {
         assertTrue(cp.stdout().size() > 0 || cp.stderr().size() > 0);
     }
 
+    @Test
+    void test_run_with_line_consumers() throws Exception {
+        List<String> received = new ArrayList<>();
+        Subprocess.CompletedProcess cp;
+        if (OSType.isMac() || OSType.isUnix()) {
+            cp = new Subprocess().run(Arrays.asList("sh", "-c", "echo foo; echo bar; echo baz 1>&2"),
+                    received::add,
+                    line -> {});
+        } else {
+            cp = new Subprocess().run(Arrays.asList("cmd.exe", "/C", "echo foo& echo bar& echo baz 1>&2"),
+                    received::add,
+                    line -> {});
+        }
+        assertEquals(0, cp.returncode());
+        assertEquals(2, received.size());
+        assertEquals("foo", received.get(0).trim());
+        assertEquals(2, cp.stdoutLineCount());
+        assertEquals(1, cp.stderrLineCount());
+        // the lines are not retained in the CompletedProcess
+        assertEquals(0, cp.stdout().size());
+        assertEquals(0, cp.stderr().size());
+    }
+
+    @Test
+    void test_run_with_headTail_capturePolicy() throws Exception {
+        Subprocess.CompletedProcess cp;
+        if (OSType.isMac() || OSType.isUnix()) {
+            cp = new Subprocess()
+                    .capturePolicy(CapturePolicy.headTail(2, 2))
+                    .run(Arrays.asList("sh", "-c", "for i in 1 2 3 4 5 6 7 8 9 10; do echo $i; done"));
+        } else {
+            cp = new Subprocess()
+                    .capturePolicy(CapturePolicy.headTail(2, 2))
+                    .run(Arrays.asList("cmd.exe", "/C", "for /L %i in (1,1,10) do @echo %i"));
+        }
+        assertEquals(0, cp.returncode());
+        assertEquals(4, cp.stdout().size());
+        assertEquals("1", cp.stdout().get(0).trim());
+        assertEquals("10", cp.stdout().get(3).trim());
+        assertEquals(10, cp.stdoutLineCount());
+        assertEquals(6, cp.stdoutDroppedLines());
+    }
+
+    @Test
+    void test_run_with_raw_capturePolicy() throws Exception {
+        Subprocess.CompletedProcess cp;
+        if (OSType.isMac() || OSType.isUnix()) {
+            cp = new Subprocess()
+                    .capturePolicy(CapturePolicy.raw())
+                    .charset(StandardCharsets.UTF_8)
+                    .run(Arrays.asList("sh", "-c", "echo foo; echo bar"));
+            assertEquals(0, cp.returncode());
+            assertArrayEquals("foo\nbar\n".getBytes(StandardCharsets.UTF_8), cp.stdoutBytes());
+            assertEquals(2, cp.stdoutLineCount());
+            assertEquals(Arrays.asList("foo", "bar"), cp.stdout());
+        }
+    }
+
+    @Test
+    void test_stdoutBytes_not_captured() throws Exception {
+        Subprocess.CompletedProcess cp = new Subprocess.CompletedProcess(Arrays.asList("ls"));
+        assertThrows(IllegalStateException.class, cp::stdoutBytes);
+    }
+
+    @Test
+    void test_redirectErrorStream() throws Exception {
+        Subprocess.CompletedProcess cp;
+        if (OSType.isMac() || OSType.isUnix()) {
+            cp = new Subprocess()
+                    .redirectErrorStream(true)
+                    .run(Arrays.asList("sh", "-c", "echo foo; echo bar 1>&2"));
+        } else {
+            cp = new Subprocess()
+                    .redirectErrorStream(true)
+                    .run(Arrays.asList("cmd.exe", "/C", "echo foo& echo bar 1>&2"));
+        }
+        assertEquals(0, cp.returncode());
+        assertEquals(2, cp.stdout().size());
+        assertEquals(0, cp.stderr().size());
+    }
+
+    @Test
+    void test_executor() throws Exception {
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            Subprocess sp = new Subprocess().executor(es);
+            for (int i = 0; i < 3; i++) {
+                Subprocess.CompletedProcess cp = sp.run(Arrays.asList("java", "-version"));
+                assertEquals(0, cp.returncode());
+                assertTrue(cp.stderr().size() > 0);
+            }
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    @Test
+    void test_runAsync() throws Exception {
+        CompletableFuture<Subprocess.CompletedProcess> future =
+                new Subprocess().runAsync(Arrays.asList("java", "-version"));
+        Subprocess.CompletedProcess cp = future.get(60, TimeUnit.SECONDS);
+        assertEquals(0, cp.returncode());
+        assertTrue(cp.stderr().size() > 0);
+    }
+
+    @Test
+    void test_runAsync_with_executor() throws Exception {
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            List<CompletableFuture<Subprocess.CompletedProcess>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(new Subprocess().runAsync(Arrays.asList("java", "-version"), es));
+            }
+            for (CompletableFuture<Subprocess.CompletedProcess> f : futures) {
+                assertEquals(0, f.get(60, TimeUnit.SECONDS).returncode());
+            }
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    @Test
+    void test_runAsync_cancel() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            CompletableFuture<Subprocess.CompletedProcess> future =
+                    new Subprocess().runAsync(Arrays.asList("sleep", "30"));
+            assertTrue(future.cancel(true));
+            assertTrue(future.isCancelled());
+        }
+    }
+
+    @Test
+    void test_runAsync_failed_to_start() {
+        CompletableFuture<Subprocess.CompletedProcess> future =
+                new Subprocess().runAsync(Arrays.asList("no-such-command-subprocessj"));
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertTrue(e.getCause() instanceof IOException);
+    }
+
+    @Test
+    void test_run_with_timeout() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            long start = System.currentTimeMillis();
+            Subprocess.CompletedProcess cp =
+                    new Subprocess().gracePeriod(Duration.ofSeconds(1))
+                            .run(Arrays.asList("sh", "-c", "echo started; sleep 30"),
+                                    Duration.ofMillis(500));
+            assertTrue(System.currentTimeMillis() - start < 10000);
+            assertTrue(cp.timedOut());
+            assertNotEquals(0, cp.returncode());
+            assertEquals(Arrays.asList("started"), cp.stdout());
+        }
+    }
+
+    @Test
+    void test_run_with_timeout_finished() throws Exception {
+        Subprocess.CompletedProcess cp =
+                new Subprocess().run(Arrays.asList("java", "-version"), Duration.ofSeconds(60));
+        assertFalse(cp.timedOut());
+        assertEquals(0, cp.returncode());
+        assertTrue(cp.stderr().size() > 0);
+    }
+
+    @Test
+    void test_stdoutFilter() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Subprocess.CompletedProcess cp = new Subprocess()
+                    .stdoutFilter(LineFilter.matching(Pattern.compile("^line1\\d$")))
+                    .run(Arrays.asList("sh", "-c", "i=0; while [ $i -lt 100 ]; do echo line$i; i=$((i+1)); done"));
+            assertEquals(0, cp.returncode());
+            assertEquals(10, cp.stdout().size());
+            assertEquals(100, cp.stdoutLineCount());
+            assertFalse(cp.stoppedEarly());
+        }
+    }
+
+    @Test
+    void test_stdoutFilter_stopAfterFirstMatch() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            // would print lines forever
+            Subprocess.CompletedProcess cp = new Subprocess()
+                    .stdoutFilter(LineFilter.containing("line100").stopAfterFirstMatch())
+                    .run(Arrays.asList("sh", "-c", "i=0; while true; do echo line$i; i=$((i+1)); done"),
+                            Duration.ofSeconds(30));
+            assertFalse(cp.timedOut());
+            assertTrue(cp.stoppedEarly());
+            assertEquals(Arrays.asList("line100"), cp.stdout());
+            assertNotEquals(0, cp.returncode());
+        }
+    }
+
+    @Test
+    void test_getDefaultExecutor_shared() {
+        assertSame(Subprocess.getDefaultExecutor(), Subprocess.getDefaultExecutor());
+    }
+
     /**
      * this test method will throw IOException when executed on a CI/CD environment where
      * "git" is not installed. So I disabled this.
@@ -94,4 +305,67 @@ class SubprocessTest {
         String actual = sp.environment("PLANTUML_LIMIT_SIZE");
         assertEquals("8192", actual);
     }
+
+    @Test
+    void test_lines_short_circuit() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            long start = System.currentTimeMillis();
+            try (Stream<String> lines = new Subprocess().lines(
+                    Arrays.asList("sh", "-c", "echo alpha; echo beta; sleep 30; echo gamma"))) {
+                Optional<String> found = lines.filter(s -> s.startsWith("b")).findFirst();
+                assertEquals(Optional.of("beta"), found);
+            }
+            assertTrue(System.currentTimeMillis() - start < 10000);
+        }
+    }
+
+    @Test
+    void test_lines_all() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            try (Stream<String> lines = new Subprocess().lines(
+                    Arrays.asList("sh", "-c", "echo error 1>&2; seq 1 1000"))) {
+                assertEquals(1000, lines.count());
+            }
+        }
+    }
+
+    @Test
+    void test_lines_stdin_failure_thrown_by_close() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            InputStream broken = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    throw new IOException("broken source");
+                }
+            };
+            Stream<String> lines = new Subprocess()
+                    .stdin(StdinSource.fromInputStream(broken))
+                    .lines(Arrays.asList("cat"));
+            assertEquals(0, lines.count());
+            UncheckedIOException e = assertThrows(UncheckedIOException.class, lines::close);
+            assertEquals("broken source", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    void test_stdout_is_mutable() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Subprocess.CompletedProcess cp = new Subprocess().run(
+                    Arrays.asList("sh", "-c", "echo b; echo a"));
+            cp.stdout().sort(String::compareTo);
+            assertEquals(Arrays.asList("a", "b"), cp.stdout());
+        }
+    }
+
+    @Test
+    void test_failing_consumer_destroys_the_process() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            long start = System.currentTimeMillis();
+            assertThrows(IllegalStateException.class, () ->
+                    new Subprocess().run(Arrays.asList("sh", "-c", "echo data; exec sleep 30"),
+                            line -> { throw new IllegalStateException("broken consumer"); },
+                            line -> {}));
+            assertTrue(System.currentTimeMillis() - start < 10000);
+        }
+    }
 }
@@ -0,0 +1,49 @@
+package com.kazurayam.subprocessj;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifies that the versioned classes override those of src/main/java
+ * when the tests run on Java 9 and later.
+ */
+public class MultiReleaseTest {
+
+    @Test
+    public void test_ExitReaper_without_polling_thread() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            Process process = new ProcessBuilder("sh", "-c", "sleep 0.1; exit 5").start();
+            assertEquals(5, ExitReaper.onExit(process).get(10, TimeUnit.SECONDS));
+            // the Java 8 variant starts this thread
+            assertTrue(Thread.getAllStackTraces().keySet().stream()
+                    .noneMatch(t -> t.getName().equals("subprocessj-exit-reaper")));
+        }
+    }
+
+    @Test
+    public void test_Processes_pid() throws Exception {
+        Process process = new ProcessBuilder("java", "-version").start();
+        assertEquals(process.pid(), Processes.pid(process));
+        process.waitFor();
+    }
+
+    @Test
+    public void test_GobblerExecutors_virtual_threads_on_21() throws Exception {
+        if (JavaLauncher.javaFeatureVersion() >= 21) {
+            ExecutorService es = GobblerExecutors.newDefault();
+            try {
+                Method isVirtual = Thread.class.getMethod("isVirtual");
+                boolean virtual = es.submit(() -> (Boolean) isVirtual.invoke(Thread.currentThread()))
+                        .get(10, TimeUnit.SECONDS);
+                assertTrue(virtual);
+            } finally {
+                es.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.kazurayam.subprocessj;
+
+import com.kazurayam.subprocessj.Subprocess.CompletedProcess;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutputPublisherTest {
+
+    @Test
+    public void test_stdout() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            OutputPublisher publisher = OutputPublisher.stdout(new Subprocess(),
+                    Arrays.asList("sh", "-c", "echo one; echo two; echo three; exit 2"));
+            Recorder recorder = new Recorder(1);
+            publisher.subscribe(recorder);
+            recorder.completed.get(10, TimeUnit.SECONDS);
+            assertEquals(Arrays.asList("one", "two", "three"), recorder.lines);
+            CompletedProcess cp = publisher.onExit().get(10, TimeUnit.SECONDS);
+            assertEquals(2, cp.returncode());
+        }
+    }
+
+    @Test
+    public void test_backpressure_and_cancel() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            OutputPublisher publisher = OutputPublisher.stdout(new Subprocess(),
+                    Arrays.asList("seq", "1", "200000"));
+            Recorder recorder = new Recorder(0);
+            publisher.subscribe(recorder);
+            recorder.subscription.request(5);
+            Thread.sleep(300);
+            assertEquals(Arrays.asList("1", "2", "3", "4", "5"), recorder.lines);
+            assertFalse(publisher.onExit().isDone());
+            recorder.subscription.cancel();
+            publisher.onExit().get(10, TimeUnit.SECONDS);
+            assertFalse(recorder.completed.isDone());
+        }
+    }
+
+    @Test
+    public void test_second_subscriber() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            OutputPublisher publisher = OutputPublisher.stderr(new Subprocess(),
+                    Arrays.asList("sh", "-c", "echo progress 1>&2"));
+            Recorder first = new Recorder(Long.MAX_VALUE);
+            publisher.subscribe(first);
+            Recorder second = new Recorder(Long.MAX_VALUE);
+            publisher.subscribe(second);
+            assertFailedWith(IllegalStateException.class, second.completed);
+            first.completed.get(10, TimeUnit.SECONDS);
+            assertEquals(Arrays.asList("progress"), first.lines);
+        }
+    }
+
+    @Test
+    public void test_non_positive_request() throws Exception {
+        if (OSType.isMac() || OSType.isUnix()) {
+            OutputPublisher publisher = OutputPublisher.stdout(new Subprocess(),
+                    Arrays.asList("sh", "-c", "echo one; exec sleep 30"));
+            Recorder recorder = new Recorder(0);
+            publisher.subscribe(recorder);
+            recorder.subscription.request(0);
+            assertFailedWith(IllegalArgumentException.class, recorder.completed);
+            publisher.onExit().get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void assertFailedWith(Class<? extends Throwable> expected,
+                                         CompletableFuture<Void> future) {
+        Throwable t = assertThrows(Exception.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertTrue(expected.isInstance(t.getCause()), String.valueOf(t.getCause()));
+    }
+
+    private static final class Recorder implements Flow.Subscriber<String> {
+        final List<String> lines = new CopyOnWriteArrayList<>();
+        final CompletableFuture<Void> completed = new CompletableFuture<>();
+        final long initialRequest;
+        volatile Flow.Subscription subscription;
+        Recorder(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+        @Override
+        public void onNext(String line) {
+            lines.add(line);
+            if (initialRequest == 1) {
+                subscription.request(1);
+            }
+        }
+        @Override
+        public void onError(Throwable throwable) {
+            completed.completeExceptionally(throwable);
+        }
+        @Override
+        public void onComplete() {
+            completed.complete(null);
+        }
+    }
+}